@@ -0,0 +1,190 @@
+package com.robocode;
+
+import robocode.RobocodeFileOutputStream;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lookup table that can be shared by parallel learners (e.g. many simulated battles).
+ * Same {state, action} representation and file format as LUT, but
+ * - Q values are stored as the long bits of doubles in one flat array and updated
+ *   with VarHandle compare-and-set, so concurrent updates are lock-free and never lost
+ * - Access counts are LongAdders, so concurrent increments do not contend on one cache line
+ */
+public class ConcurrentLUT implements CommonInterface {
+    private static final VarHandle CELL = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long [] lut;          // Q value bits, index = ((((a * d2 + b) * d3 + c) * d4 + d) * dA + e)
+    private final LongAdder [] accessCnt;
+    private final int state1Dim;
+    private final int state2Dim;
+    private final int state3Dim;
+    private final int state4Dim;
+    private final int actionDim;
+    private final boolean randomQ;      // Random or zero initial Q
+
+    // Constructor
+    public ConcurrentLUT(int state1Dim, int state2Dim, int state3Dim, int state4Dim, int actionDim, boolean randomQ) {
+        this.state1Dim = state1Dim;
+        this.state2Dim = state2Dim;
+        this.state3Dim = state3Dim;
+        this.state4Dim = state4Dim;
+        this.actionDim = actionDim;
+        this.randomQ = randomQ;
+
+        int size = state1Dim * state2Dim * state3Dim * state4Dim * actionDim;
+        lut = new long[size];
+        accessCnt = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            accessCnt[i] = new LongAdder();
+        }
+
+        initLUT();
+    }
+
+    /**
+     * Initialize the Q values to random number between {0, 1} or zero and the access counts to 0.
+     * The random numbers come from the calling thread's stream (see Rng).
+     */
+    public void initLUT() {
+        initLUT(Rng.current());
+    }
+
+    /**
+     * Initialize the Q values to random number between {0, 1} from a given generator or zero
+     * and the access counts to 0.
+     * @param rnd The random number generator.
+     */
+    public void initLUT(SplittableRandom rnd) {
+        for (int i = 0; i < lut.length; i++) {
+            CELL.setVolatile(lut, i, Double.doubleToRawLongBits(randomQ ? rnd.nextDouble() : 0.0));
+            accessCnt[i].reset();
+        }
+    }
+
+    /**
+     * Return the flat index of a {state, action} vector.
+     * @param x The {state, action} vector.
+     * @return index into the table.
+     * @throws IndexOutOfBoundsException if a component is outside its dimension (it would alias another entry).
+     */
+    public int indexFor(double [] x) {
+        int s1 = Objects.checkIndex((int) x[0], state1Dim);
+        int s2 = Objects.checkIndex((int) x[1], state2Dim);
+        int s3 = Objects.checkIndex((int) x[2], state3Dim);
+        int s4 = Objects.checkIndex((int) x[3], state4Dim);
+        int a = Objects.checkIndex((int) x[4], actionDim);
+        return (((s1 * state2Dim + s2) * state3Dim + s3) * state4Dim + s4) * actionDim + a;
+    }
+
+    /**
+     * Return access count of a {state, action} entry.
+     * @param x The {state, action} vector.
+     * @return access count of the corresponding {state, action} LUT entry.
+     */
+    public long getAccessCnt(double [] x) {
+        return accessCnt[indexFor(x)].sum();
+    }
+
+    /**
+     * Return Q-value of a {state, action} entry, i.e. Q(s, a).
+     * @param x The {state, action} vector.
+     * @return Q-value of the corresponding {state, action} LUT entry.
+     */
+    @Override
+    public double outputFor(double [] x) {
+        return Double.longBitsToDouble((long) CELL.getVolatile(lut, indexFor(x)));
+    }
+
+    /**
+     * Set the Q-value of {state, action} vector x to the target (same as LUT.train()).
+     * @param x The {state, action} vector.
+     * @param target Target value to be learned.
+     */
+    @Override
+    public void train(double [] x, double target) {
+        int i = indexFor(x);
+        CELL.setVolatile(lut, i, Double.doubleToRawLongBits(target));
+        accessCnt[i].increment();
+    }
+
+    /**
+     * Atomically move the Q-value of {state, action} vector x towards the target:
+     * Q = Q + alpha * (target - Q). Concurrent updates of the same entry are all applied.
+     * @param x The {state, action} vector.
+     * @param alpha Learning rate.
+     * @param target Target value, e.g. reward + gamma * max Q(s', a').
+     * @return the new Q-value.
+     */
+    public double update(double [] x, double alpha, double target) {
+        int i = indexFor(x);
+        long oldBits, newBits;
+        double q;
+        do {
+            oldBits = (long) CELL.getVolatile(lut, i);
+            double oldQ = Double.longBitsToDouble(oldBits);
+            q = oldQ + alpha * (target - oldQ);
+            newBits = Double.doubleToRawLongBits(q);
+        } while (!CELL.compareAndSet(lut, i, oldBits, newBits));
+        accessCnt[i].increment();
+        return q;
+    }
+
+    /**
+     * Write the current LUT to output file in the same format as LUT.save().
+     * @param filename Target output file.
+     */
+    @Override
+    public void save(File filename) {
+        PrintStream w = null;
+        try {
+            w = new PrintStream(new BufferedOutputStream(new RobocodeFileOutputStream(filename)));
+            int i = 0;
+            for (int a = 0; a < state1Dim; a++) {
+                for (int b = 0; b < state2Dim; b++) {
+                    for (int c = 0; c < state3Dim; c++) {
+                        for (int d = 0; d < state4Dim; d++) {
+                            for (int e = 0; e < actionDim; e++) {
+                                w.println(a + "" + b + "" + c + "" + d + "" + e + "\t" +
+                                        Double.longBitsToDouble((long) CELL.getVolatile(lut, i)) + "\t" +
+                                        accessCnt[i].sum());
+                                i++;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (w != null) w.close();
+        }
+    }
+
+    /**
+     * Read a saved LUT file (LUT.save() format) into the table.
+     * @param filename Saved LUT filename.
+     */
+    @Override
+    public void load(File filename) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            double [] x = new double[5];
+            while ((line = reader.readLine()) != null) {
+                String [] splitLine = line.split("\t");
+                for (int k = 0; k < 5; k++) {
+                    x[k] = Character.getNumericValue(splitLine[0].charAt(k));
+                }
+                int i = indexFor(x);
+                CELL.setVolatile(lut, i, Double.doubleToRawLongBits(Double.parseDouble(splitLine[1])));
+                accessCnt[i].reset();
+                accessCnt[i].add(Long.parseLong(splitLine[2]));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.robocode;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+public class ConcurrentLUTBench {
+    /**
+     * Standalone benchmark of the shared ConcurrentLUT against the number of learner threads.
+     * - For 1, 2, 4, ... up to 2 x # of cores threads
+     * -   Each thread performs the same number of TD updates (read greedy Q, atomic update) on random entries
+     * -   Report total throughput and the speed-up over 1 thread
+     * - Finally verify that no concurrent access count increment was lost
+     * @param args Optional: number of updates per thread (default 2,000,000)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int updatesPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        Rng.setSeed(0);     // Same update sequence of each thread in every run
+
+        // Warm up the JIT
+        run(new ConcurrentLUT(8, 6, 4, 4, 5, false), 1, updatesPerThread / 4);
+
+        System.out.println("Threads" + "\t" + "Updates/s" + "\t" + "Speed-up");
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ConcurrentLUT lut = new ConcurrentLUT(8, 6, 4, 4, 5, false);
+            long nanos = run(lut, threads, updatesPerThread);
+            double throughput = (double) threads * updatesPerThread / (nanos / 1e9);
+            if (threads == 1) baseline = throughput;
+            System.out.printf("%d\t%.0f\t%.2f%n", threads, throughput, throughput / baseline);
+
+            // Every update increments one access count
+            long totalCnt = 0;
+            double [] x = new double[5];
+            for (x[0] = 0; x[0] < 8; x[0]++)
+                for (x[1] = 0; x[1] < 6; x[1]++)
+                    for (x[2] = 0; x[2] < 4; x[2]++)
+                        for (x[3] = 0; x[3] < 4; x[3]++)
+                            for (x[4] = 0; x[4] < 5; x[4]++)
+                                totalCnt += lut.getAccessCnt(x);
+            if (totalCnt != (long) threads * updatesPerThread) {
+                System.out.println("Lost updates: " + totalCnt + " != " + (long) threads * updatesPerThread);
+            }
+        }
+    }
+
+    /**
+     * Run the learner threads on a shared table.
+     * @param lut The shared table.
+     * @param threads Number of learner threads.
+     * @param updatesPerThread Number of updates per thread.
+     * @return elapsed wall-clock time in nanoseconds.
+     */
+    static long run(ConcurrentLUT lut, int threads, int updatesPerThread) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final SplittableRandom rnd = Rng.forStream(t);
+            new Thread(() -> {
+                double [] prevSA = new double[5];
+                double [] currSA = new double[5];
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int n = 0; n < updatesPerThread; n++) {
+                    prevSA[0] = rnd.nextInt(8);
+                    prevSA[1] = rnd.nextInt(6);
+                    prevSA[2] = rnd.nextInt(4);
+                    prevSA[3] = rnd.nextInt(4);
+                    prevSA[4] = rnd.nextInt(5);
+                    System.arraycopy(prevSA, 0, currSA, 0, 5);
+                    currSA[4] = rnd.nextInt(5);
+                    lut.update(prevSA, 0.7, rnd.nextDouble() + 0.9 * lut.outputFor(currSA));
+                }
+                done.countDown();
+            }).start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - startTime;
+    }
+}
@@ -0,0 +1,252 @@
+package com.robocode;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Greedy policy of a trained NeuralNet distilled into a dense table over a grid of the 4 state inputs,
+ * for competitive battles without learning: the greedy action is a single array read.
+ * - Cell  : input k in {0..max[k]} is split into grid[k] equal intervals, the NN is evaluated at the center
+ * - Table : one byte (greedy action) per cell, optionally the Q values of all actions as floats
+ * - File  : magic, version, grid sizes, input max values, # of actions, Q flag, actions, Q values
+ */
+public class DecisionTable {
+    static final int MAGIC = 0x524C4454;    // "RLDT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 61;      // magic, version, 4 grid sizes, 4 max values, # of actions, Q flag
+
+    private final int [] grid;              // # of cells of each state input
+    private final double [] max;            // Max value of each state input
+    private final int numActions;
+    private final byte [] actions;          // Greedy action of each cell
+    private final float [] qValues;         // Q values of cell c at [c * numActions ..], null if not kept
+
+    // Constructor
+    private DecisionTable(int [] grid, double [] max, int numActions, boolean withQ) {
+        this.grid = grid.clone();
+        this.max = max.clone();
+        this.numActions = numActions;
+        int size = grid[0] * grid[1] * grid[2] * grid[3];
+        actions = new byte[size];
+        qValues = withQ ? new float[size * numActions] : null;
+    }
+
+    /**
+     * Evaluate the NN at the center of every cell of the grid, one slice of the first input per task.
+     * @param nn The trained neural net (not modified).
+     * @param grid # of cells of each of the 4 state inputs.
+     * @param max Max value of each of the 4 state inputs.
+     * @param numActions # of actions.
+     * @param withQ true to keep the Q values of all actions.
+     * @param numThreads # of threads.
+     * @return the decision table.
+     */
+    public static DecisionTable compile(NeuralNet nn, int [] grid, double [] max, int numActions,
+                                        boolean withQ, int numThreads) throws Exception {
+        DecisionTable table = new DecisionTable(grid, max, numActions, withQ);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int a = 0; a < grid[0]; a++) {
+                final int slice = a;
+                final NeuralNet net = nn.copy();    // outputFor() is not thread-safe
+                futures.add(executor.submit(() -> table.compileSlice(net, slice)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return table;
+    }
+
+    /**
+     * Evaluate the NN for all cells of one value of the first input.
+     * @param nn The neural net used by this thread.
+     * @param a The cell index of the first input.
+     */
+    private void compileSlice(NeuralNet nn, int a) {
+        double [] x = new double[5];
+        x[0] = center(0, a);
+        int cell = a * grid[1] * grid[2] * grid[3];
+        for (int b = 0; b < grid[1]; b++) {
+            x[1] = center(1, b);
+            for (int c = 0; c < grid[2]; c++) {
+                x[2] = center(2, c);
+                for (int d = 0; d < grid[3]; d++, cell++) {
+                    x[3] = center(3, d);
+
+                    // Same tie rule as MyRobotNN.greedyAction(): the last action with max Q
+                    int maxQAction = 0;
+                    double maxQ = Double.NEGATIVE_INFINITY;
+                    for (int i = 0; i < numActions; i++) {
+                        x[4] = i;
+                        double q = nn.outputFor(x);
+                        if (qValues != null) qValues[cell * numActions + i] = (float) q;
+                        if (q >= maxQ) {
+                            maxQ = q;
+                            maxQAction = i;
+                        }
+                    }
+                    actions[cell] = (byte) maxQAction;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the center value of a cell of a state input.
+     */
+    private double center(int k, int i) {
+        return (i + 0.5) * max[k] / grid[k];
+    }
+
+    /**
+     * Return the cell index of a state.
+     * @param x The quantized state values {x, y, distance, energy, ...}, clamped to the grid.
+     * @return the cell index.
+     */
+    public int indexFor(double [] x) {
+        int cell = 0;
+        for (int k = 0; k < 4; k++) {
+            int i = (int) (x[k] / max[k] * grid[k]);
+            cell = cell * grid[k] + Math.max(0, Math.min(grid[k] - 1, i));
+        }
+        return cell;
+    }
+
+    /**
+     * Return the greedy action of a state.
+     * @param x The quantized state values.
+     * @return the action index.
+     */
+    public int actionFor(double [] x) {
+        return actions[indexFor(x)];
+    }
+
+    /**
+     * Return the Q value of a state and action.
+     * @param x The quantized state values.
+     * @param action The action index.
+     * @return the Q value at the cell center.
+     */
+    public double qFor(double [] x, int action) {
+        if (qValues == null) throw new IllegalStateException("Decision table compiled without Q values");
+        return qValues[indexFor(x) * numActions + action];
+    }
+
+    /**
+     * Write the table to a file.
+     * @param out The output stream.
+     */
+    public void save(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        for (int k = 0; k < 4; k++) data.writeInt(grid[k]);
+        for (int k = 0; k < 4; k++) data.writeDouble(max[k]);
+        data.writeInt(numActions);
+        data.writeBoolean(qValues != null);
+        data.write(actions);
+        if (qValues != null) {
+            for (float q : qValues) data.writeFloat(q);
+        }
+        data.flush();
+    }
+
+    /**
+     * Read a table written by save().
+     * The header is validated against the file length and the expected # of actions before anything
+     * is allocated, so that a truncated or foreign file is rejected.
+     * @param filename The table file.
+     * @param numActions The expected # of actions, e.g. of the robot.
+     * @return the decision table.
+     * @throws IOException if the file is not a decision table of numActions actions.
+     */
+    public static DecisionTable load(File filename, int numActions) throws IOException {
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+            if (filename.length() < HEADER_SIZE || data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Not a decision table: " + filename);
+            }
+            int [] grid = new int[4];
+            double [] max = new double[4];
+            for (int k = 0; k < 4; k++) grid[k] = data.readInt();
+            for (int k = 0; k < 4; k++) max[k] = data.readDouble();
+            if (data.readInt() != numActions) {
+                throw new IOException("Decision table does not have " + numActions + " actions: " + filename);
+            }
+            boolean withQ = data.readBoolean();
+
+            long size = 1;
+            for (int k = 0; k < 4; k++) {
+                if (grid[k] <= 0 || !(max[k] > 0) || Double.isInfinite(max[k])) {
+                    throw new IOException("Invalid decision table grid: " + filename);
+                }
+                size *= grid[k];
+                if (size > Integer.MAX_VALUE / Math.max(1, 4 * numActions)) {
+                    throw new IOException("Decision table grid too large: " + filename);
+                }
+            }
+            long expected = HEADER_SIZE + size + (withQ ? size * numActions * 4 : 0);
+            if (filename.length() != expected) {
+                throw new IOException("Decision table size " + filename.length() + " != " + expected + ": " + filename);
+            }
+
+            DecisionTable table = new DecisionTable(grid, max, numActions, withQ);
+            data.readFully(table.actions);
+            for (byte action : table.actions) {
+                if (action < 0 || action >= numActions) {
+                    throw new IOException("Invalid action " + action + " in decision table: " + filename);
+                }
+            }
+            if (withQ) {
+                for (int i = 0; i < table.qValues.length; i++) table.qValues[i] = data.readFloat();
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Compile the weights saved by MyRobotNN into a decision table file.
+     * @param args Optional: weight file (default "NN_weights.dat"), table file (default "NN_policy.tbl"),
+     *             4 grid sizes (default 32 24 40 40), "q" to keep the Q values
+     */
+    public static void main(String[] args) {
+        File weightFile = new File(args.length > 0 ? args[0] : MyRobotNN.weightFileName);
+        File tableFile = new File(args.length > 1 ? args[1] : MyRobotNN.decisionTableFileName);
+        int [] grid = {32, 24, 40, 40};
+        for (int k = 0; k < 4 && args.length > 2 + k; k++) {
+            grid[k] = Integer.parseInt(args[2 + k]);
+        }
+        boolean withQ = args.length > 6 && args[6].equals("q");
+
+        NeuralNet nn = MyRobotNN.newNet();
+        try {
+            nn.load(weightFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+
+        long startTime = System.nanoTime();
+        try (OutputStream out = new FileOutputStream(tableFile)) {
+            DecisionTable table = compile(nn, grid, MyRobotNN.inputRange[0], MyRobotNN.stateAction.values().length,
+                    withQ, Runtime.getRuntime().availableProcessors());
+            table.save(out);
+            System.out.printf("Compiled %d cells in %.1f ms to %s%n", table.actions.length,
+                    (System.nanoTime() - startTime) / 1e6, tableFile);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    // Get methods
+    public int size() { return actions.length; }
+    public boolean hasQValues() { return qValues != null; }
+}
@@ -0,0 +1,117 @@
+package com.robocode;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Double Q-learning over two approximators (LUTs or NNs) with alternating roles.
+ * - The online approximator selects the greedy next action and is the one trained
+ * - The other approximator evaluates the selected action, which removes the overestimation
+ *   of max Q when the same approximator both selects and evaluates
+ * - The roles are swapped after every training step
+ * - The policy (outputFor) is the average of both approximators
+ * Both approximators share the input vector layout {state 1..4, action}.
+ */
+public class DoubleQ implements CommonInterface {
+    private final CommonInterface [] q = new CommonInterface[2];
+    private int online = 0;             // Index of the online approximator
+    private final double [] qValues;    // Q values of all actions of the last evaluated state
+
+    // Constructor
+    public DoubleQ(CommonInterface qA, CommonInterface qB, int numActions) {
+        q[0] = qA;
+        q[1] = qB;
+        qValues = new double[numActions];
+    }
+
+    // Get methods for the approximator roles
+    public CommonInterface online() { return q[online]; }
+    public CommonInterface evaluator() { return q[1 - online]; }
+
+    /**
+     * Swap the roles of the two approximators.
+     */
+    public void swap() {
+        online = 1 - online;
+    }
+
+    /**
+     * Return the greedy action of an approximator, the last action with max Q (same tie rule as the robots).
+     * @param net The approximator.
+     * @param x The {state, action} vector, x[4] is overwritten by each action.
+     * @return the action index.
+     */
+    public int greedyAction(CommonInterface net, double [] x) {
+        int maxQAction = 0;
+        double maxQ = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < qValues.length; i++) {
+            x[4] = i;
+            qValues[i] = net.outputFor(x);
+            if (qValues[i] >= maxQ) {
+                maxQ = qValues[i];
+                maxQAction = i;
+            }
+        }
+        return maxQAction;
+    }
+
+    /**
+     * Return the double Q estimate of max Q of a state: the evaluator's Q value of the online greedy action.
+     * @param x The {state, action} vector of the next state, x[4] is overwritten.
+     * @return Q_evaluator(s, argmax_a Q_online(s, a)).
+     */
+    public double maxQ(double [] x) {
+        x[4] = greedyAction(online(), x);
+        return evaluator().outputFor(x);
+    }
+
+    /**
+     * Return the policy value of a {state, action} vector.
+     * @param x The {state, action} vector.
+     * @return the average of the two approximators.
+     */
+    @Override
+    public double outputFor(double [] x) {
+        return 0.5 * (q[0].outputFor(x) + q[1].outputFor(x));
+    }
+
+    /**
+     * Train the online approximator and swap the roles.
+     * @param x The {state, action} vector.
+     * @param target The new value to learn.
+     */
+    @Override
+    public void train(double [] x, double target) {
+        online().train(x, target);
+        swap();
+    }
+
+    /**
+     * Write both approximators, the second one to filename + ".b".
+     * @param filename Target output file.
+     */
+    @Override
+    public void save(File filename) {
+        q[0].save(filename);
+        q[1].save(secondFile(filename));
+    }
+
+    /**
+     * Read both approximators written by save().
+     * @param filename Saved filename.
+     */
+    @Override
+    public void load(File filename) throws IOException {
+        q[0].load(filename);
+        q[1].load(secondFile(filename));
+    }
+
+    /**
+     * Return the file of the second approximator.
+     * @param filename The file of the first approximator.
+     * @return filename + ".b".
+     */
+    public static File secondFile(File filename) {
+        return new File(filename.getPath() + ".b");
+    }
+}
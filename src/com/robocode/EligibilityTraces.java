@@ -0,0 +1,84 @@
+package com.robocode;
+
+/**
+ * Sparse set of active eligibility traces for Q(lambda) / SARSA(lambda) over a LUT.
+ * Only recently visited {state, action} entries with a trace above the cutoff are kept,
+ * so the cost of each learning step is proportional to the number of active traces
+ * instead of the size of the LUT.
+ * - visit()  : set the trace of the visited entry to 1 (replacing traces)
+ * - update() : apply the TD error to all active entries weighted by their traces
+ * - decay()  : multiply all traces by gamma * lambda and drop the ones below the cutoff
+ * If the set is full, the entry with the smallest trace is replaced.
+ */
+public class EligibilityTraces {
+    private int [] index;       // LUT index of each active trace
+    private double [] trace;    // Trace value of each active trace
+    private int count = 0;      // Number of active traces
+    private double cutoff;      // Traces below the cutoff are dropped
+
+    // Constructor
+    public EligibilityTraces(int capacity, double cutoff) {
+        index = new int[capacity];
+        trace = new double[capacity];
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Set the trace of a visited entry to 1.
+     * @param lutIndex The LUT index of the visited {state, action} entry.
+     */
+    public void visit(int lutIndex) {
+        int smallest = 0;
+        for (int k = 0; k < count; k++) {
+            if (index[k] == lutIndex) {
+                trace[k] = 1.0;
+                return;
+            }
+            if (trace[k] < trace[smallest]) smallest = k;
+        }
+
+        int k = count < index.length ? count++ : smallest;
+        index[k] = lutIndex;
+        trace[k] = 1.0;
+    }
+
+    /**
+     * Apply a TD update to all active entries: Q(s, a) += alphaDelta * e(s, a).
+     * @param lut The lookup table.
+     * @param alphaDelta Learning rate times TD error.
+     */
+    public void update(LUT lut, double alphaDelta) {
+        for (int k = 0; k < count; k++) {
+            lut.addQ(index[k], alphaDelta * trace[k]);
+        }
+    }
+
+    /**
+     * Decay all traces and drop the ones below the cutoff.
+     * @param factor Decay factor, i.e. gamma * lambda.
+     */
+    public void decay(double factor) {
+        int n = 0;
+        for (int k = 0; k < count; k++) {
+            double e = trace[k] * factor;
+            if (e >= cutoff) {
+                index[n] = index[k];
+                trace[n] = e;
+                n++;
+            }
+        }
+        count = n;
+    }
+
+    /**
+     * Drop all traces, e.g. at end of round or after an exploratory action in Watkins Q(lambda).
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    // Get methods
+    public int size() { return count; }
+    public int getIndex(int k) { return index[k]; }
+    public double getTrace(int k) { return trace[k]; }
+}
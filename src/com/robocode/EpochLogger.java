@@ -0,0 +1,162 @@
+package com.robocode;
+
+import java.io.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Metrics sink for the {epoch, error} pairs produced by the training loop.
+ * - Records are kept in primitive arrays, no string is built on the training thread
+ * - When a batch is full it is handed over to a background writer thread and the
+ *   training thread continues with a second (spare) batch, i.e. double buffering
+ * - The writer appends the batch to a CSV file and optionally to a compact binary file
+ *   of 12-byte records (int epoch, double error)
+ * - Console output is throttled to one line every consoleInterval epochs
+ */
+public class EpochLogger {
+    private final int consoleInterval;  // Print every n-th epoch to console (0 if no console output)
+
+    // Active batch filled by the training thread and spare batch written by the writer thread
+    private int [] epochs;
+    private double [] errors;
+    private int [] spareEpochs;
+    private double [] spareErrors;
+    private int count = 0;
+
+    private final ExecutorService writer;
+    private Future<?> pending = null;   // Batch being written (null if none)
+
+    private final Writer csvFile;
+    private final DataOutputStream binFile;
+    private final StringBuilder line = new StringBuilder(64);  // Used by the writer thread only
+
+    /**
+     * Create the output files and write the CSV header.
+     * @param csvName The CSV output file name.
+     * @param binName The binary output file name (null if no binary output).
+     * @param batchSize Number of records per batch written to disk.
+     * @param consoleInterval Print every n-th epoch to console (0 if no console output).
+     * @throws IOException if the output files cannot be created.
+     */
+    public EpochLogger(String csvName, String binName, int batchSize, int consoleInterval) throws IOException {
+        this.consoleInterval = consoleInterval;
+
+        epochs = new int[batchSize];
+        errors = new double[batchSize];
+        spareEpochs = new int[batchSize];
+        spareErrors = new double[batchSize];
+
+        csvFile = new BufferedWriter(new FileWriter(csvName));
+        csvFile.write("Epoch,Total Error\n");
+        binFile = binName == null ? null :
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binName)));
+
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "EpochLogger");
+            t.setDaemon(true);
+            return t;
+        });
+
+        if (consoleInterval > 0) {
+            System.out.println("Epoch" + "\t" + "Total Error");
+        }
+    }
+
+    /**
+     * Record the total error of an epoch.
+     * @param epoch The epoch number.
+     * @param totalError Total error signal of that epoch.
+     */
+    public void record(int epoch, double totalError) {
+        epochs[count] = epoch;
+        errors[count] = totalError;
+        count++;
+
+        if (consoleInterval > 0 && epoch % consoleInterval == 0) {
+            System.out.println(epoch + "\t" + totalError);
+        }
+
+        if (count == epochs.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Hand over the records of the active batch to the writer thread.
+     * Waits for the previous batch to be written first so that its arrays can be reused.
+     */
+    public void flush() {
+        if (count == 0) return;
+
+        awaitPending();
+
+        final int [] batchEpochs = epochs;
+        final double [] batchErrors = errors;
+        final int batchCount = count;
+        pending = writer.submit(() -> write(batchEpochs, batchErrors, batchCount));
+
+        // Swap active and spare batches
+        epochs = spareEpochs;
+        errors = spareErrors;
+        spareEpochs = batchEpochs;
+        spareErrors = batchErrors;
+        count = 0;
+    }
+
+    /**
+     * Flush the remaining records, wait for the writer thread and close the output files.
+     */
+    public void close() {
+        flush();
+        awaitPending();
+        writer.shutdown();
+        try {
+            csvFile.close();
+            if (binFile != null) binFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wait for the batch being written (if any).
+     */
+    private void awaitPending() {
+        if (pending == null) return;
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        pending = null;
+    }
+
+    /**
+     * Write a batch of records to the output files (writer thread).
+     * @param batchEpochs Epoch numbers.
+     * @param batchErrors Total errors.
+     * @param batchCount Number of records in the batch.
+     */
+    private void write(int [] batchEpochs, double [] batchErrors, int batchCount) {
+        try {
+            for (int i = 0; i < batchCount; i++) {
+                line.setLength(0);
+                line.append(batchEpochs[i]).append(',').append(batchErrors[i]).append('\n');
+                csvFile.append(line);
+
+                if (binFile != null) {
+                    binFile.writeInt(batchEpochs[i]);
+                    binFile.writeDouble(batchErrors[i]);
+                }
+            }
+            csvFile.flush();
+            if (binFile != null) binFile.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
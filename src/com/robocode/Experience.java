@@ -4,21 +4,29 @@ package com.robocode;
  * Experience stored in replay memory
  * - Previous state
  * - Previous action
- * - Current reward
- * - Current state
+ * - Current reward (discounted sum of the rewards of n steps for an n-step experience)
+ * - Current state (n steps after the previous state)
+ * - Number of steps n
  */
 public class Experience {
     public State prevState;
     public MyRobotNN.stateAction prevAction;
     public double currReward;
     public State currState;
+    public int steps;
 
     // Constructor
     public Experience(State prevState, MyRobotNN.stateAction prevAction, double currReward, State currState) {
+        this(prevState, prevAction, currReward, currState, 1);
+    }
+
+    // Constructor of an n-step experience
+    public Experience(State prevState, MyRobotNN.stateAction prevAction, double currReward, State currState, int steps) {
         this.prevState = prevState;
         this.prevAction = prevAction;
         this.currReward = currReward;
         this.currState = currState;
+        this.steps = steps;
     }
 
     // Convert to string
@@ -26,6 +34,7 @@ public class Experience {
         return "[Prev State:" + prevState + "][" +
                 "Prev Action:" + prevAction + "][" +
                 "Curr Reward:" + currReward + "][" +
-                "Curr State:" + currState + "]";
+                "Curr State:" + currState + "][" +
+                "Steps:" + steps + "]";
     }
 }
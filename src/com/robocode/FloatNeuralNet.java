@@ -0,0 +1,271 @@
+package com.robocode;
+
+import robocode.RobocodeFileOutputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Single precision version of NeuralNet (one hidden layer, single output).
+ * Weights, activations and deltas are float, halving the working set of the double version.
+ * The training rule is the same as NeuralNet (classic momentum from the old weights, or an Optimizer)
+ * so that both versions give the same Q values within float precision.
+ * Weights are stored in one array in weight file order: input to hidden rows
+ * (bias weight last) followed by the hidden to output weights (bias weight last).
+ */
+public class FloatNeuralNet implements NeuralNetInterface {
+    /**
+     * Parameters of the Neural Net
+     */
+    private NeuralNet.ActFnType actFn;
+    private int numInputs;  // Dimension of input vector
+    private int numHidden;  // Dimension of hidden layer
+    // Number of outputs assume = 1
+    private float learningRate;     // The learning rate coefficient
+    private float momentumTerm;     // The momentum coefficient
+    private double asymA;           // sigmoid lower bound
+    private double asymB;           // sigmoid upper bound
+
+    /**
+     * Data structures of the Neural Net layers
+     */
+    float [] weights;       // All weights
+    float [] oldWeights;    // Old weights for computing delta weights
+    int outputOffset;       // Index of the first hidden to output weight
+
+    float [] activatedHidden;
+    public float activatedOutput = 0;
+
+    float [] deltaHidden;
+    float deltaOutput = 0;
+
+    Optimizer optimizer = null; // Adaptive weight update rule (null = classic momentum)
+
+    public FloatNeuralNet(
+            NeuralNet.ActFnType actFn,
+            int numInputs,
+            int numHidden,
+            double learningRate,
+            double momentumTerm,
+            double asymA,
+            double asymB) {
+        this.actFn = actFn;
+        this.numInputs = numInputs;
+        this.numHidden = numHidden;
+        this.learningRate = (float) learningRate;
+        this.momentumTerm = (float) momentumTerm;
+        this.asymA = asymA;
+        this.asymB = asymB;
+
+        // Create the neuron layer data structures (+1 is used to include "bias" weight)
+        outputOffset = numHidden * (numInputs + 1);
+        weights = new float[outputOffset + numHidden + 1];
+        oldWeights = new float[weights.length];
+
+        activatedHidden = new float[numHidden];
+        deltaHidden = new float[numHidden];
+    }
+
+    // Sigmoid functions, computed in double and rounded to float by the caller
+    public double binarySigmoid(double x) {
+        return 1 / (1 + Math.exp(-x));
+    }
+
+    public double bipolarSigmoid(double x) {
+        return (2 / (1 + Math.exp(-x))) - 1;
+    }
+
+    public double customSigmoid(double x) {
+        return ((asymB - asymA) / (1 + Math.exp(-x))) - (-asymA);
+    }
+
+    /**
+     * Return the derivative of the activation function of the activated input y.
+     * @param y The activated input.
+     * @return derivative.
+     */
+    private float derivative(float y) {
+        if (actFn == NeuralNet.ActFnType.BINARY) {
+            return y * (1 - y);
+        } else {
+            return 0.5f * (1 + y) * (1 - y);
+        }
+    }
+
+    /**
+     * Initialize the weights to random values between -0.5 and 0.5 from the calling thread's stream (see Rng).
+     */
+    public void initializeWeights() {
+        initializeWeights(Rng.current());
+    }
+
+    /**
+     * Initialize the weights to random values between -0.5 and 0.5 from a given generator.
+     * @param rnd The random number generator.
+     */
+    public void initializeWeights(SplittableRandom rnd) {
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (float) (rnd.nextDouble() - 0.5);
+        }
+    }
+
+    /**
+     * Load a set of weights into NN, e.g. from a double precision NeuralNet.
+     * @param loadWeightsI2H The weights in input to hidden layer
+     * @param loadWeightsH2O The weights in hidden to output layer
+     */
+    public void loadWeights(double [][] loadWeightsI2H, double [] loadWeightsH2O) {
+        for (int i = 0; i < numHidden; i++) {
+            for (int j = 0; j <= numInputs; j++) {
+                weights[i * (numInputs + 1) + j] = (float) loadWeightsI2H[i][j];
+            }
+        }
+        for (int i = 0; i <= numHidden; i++) {
+            weights[outputOffset + i] = (float) loadWeightsH2O[i];
+        }
+    }
+
+    /**
+     * Initialize the old weights (and the optimizer state) to 0.
+     */
+    public void zeroWeights() {
+        Arrays.fill(oldWeights, 0);
+        if (optimizer != null) optimizer.reset();
+    }
+
+    /**
+     * Select the weight update rule.
+     * @param type The optimizer type (null = classic momentum computed from the old weights).
+     */
+    public void setOptimizer(Optimizer.Type type) {
+        optimizer = type == null ? null : new Optimizer(type, weights.length, learningRate, momentumTerm);
+    }
+
+    /**
+     * Forward pass to compute activated signals at both hidden and output layers.
+     * @param inputVector The input vector. An array of doubles.
+     * @return The value returned by the NN for this input vector.
+     */
+    public double outputFor(double[] inputVector) {
+        int w = 0;
+        for (int i = 0; i < numHidden; i++) {
+            float v = 0;
+            for (int j = 0; j < numInputs; j++) {
+                v += (float) inputVector[j] * weights[w++];
+            }
+            v += weights[w++]; // Add bias weight
+            activatedHidden[i] = (float) (actFn == NeuralNet.ActFnType.BINARY ? binarySigmoid(v) : bipolarSigmoid(v));
+        }
+
+        float v = 0;
+        for (int i = 0; i < numHidden; i++) {
+            v += activatedHidden[i] * weights[w++];
+        }
+        v += weights[w]; // Add bias weight
+        activatedOutput = (float) (actFn == NeuralNet.ActFnType.BINARY ? binarySigmoid(v) : bipolarSigmoid(v));
+
+        return activatedOutput;
+    }
+
+    /**
+     * Update one weight using learning rate, momentum and weight delta, same rule as NeuralNet.
+     * @param k The weight index.
+     * @param gradient The negative error gradient (delta * input).
+     */
+    private void updateWeight(int k, float gradient) {
+        if (optimizer != null) {
+            weights[k] += (float) optimizer.change(k, gradient);
+            return;
+        }
+        float current = weights[k];
+        float deltaWeight = oldWeights[k] != 0 ? current - oldWeights[k] : 0;
+        weights[k] = current + learningRate * gradient + momentumTerm * deltaWeight;
+        oldWeights[k] = current;
+    }
+
+    /**
+     * Train the NN the output value that should be mapped to the given input vector.
+     * Same order of steps as NeuralNet.train().
+     * @param inputVector The input vector
+     * @param desiredOutput The new value to learn
+     */
+    public void train(double[] inputVector, double desiredOutput) {
+        if (optimizer != null) optimizer.beginStep();
+        outputFor(inputVector);
+
+        // Back propagate output layer error and update weights from hidden to output layer
+        deltaOutput = ((float) desiredOutput - activatedOutput) * derivative(activatedOutput);
+        for (int i = 0; i < numHidden; i++) {
+            updateWeight(outputOffset + i, deltaOutput * activatedHidden[i]);
+        }
+        updateWeight(outputOffset + numHidden, deltaOutput);
+
+        // Back propagate hidden layer error and update weights from input to hidden layer
+        for (int i = 0; i < numHidden; i++) {
+            deltaHidden[i] = weights[outputOffset + i] * deltaOutput * derivative(activatedHidden[i]);
+        }
+        int w = 0;
+        for (int i = 0; i < numHidden; i++) {
+            for (int j = 0; j < numInputs; j++) {
+                updateWeight(w++, deltaHidden[i] * (float) inputVector[j]);
+            }
+            updateWeight(w++, deltaHidden[i]);
+        }
+    }
+
+    /**
+     * Save the weights to a binary weight file with float elements (robocode version).
+     * @param filename of type File
+     */
+    public void save(File filename) {
+        OutputStream out = null;
+        try {
+            out = new RobocodeFileOutputStream(filename);
+            save(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write the weights to an output stream in the binary weight file format with float elements.
+     * @param out The output stream
+     * @throws IOException if the write fails
+     */
+    public void save(OutputStream out) throws IOException {
+        NeuralNet.ActFnType [] actFns = {actFn, actFn};
+        ByteBuffer buf = WeightFile.begin(new int[]{numInputs, numHidden, 1}, actFns, WeightFile.FLOAT,
+                weights.length, WeightFile.boundsSize(actFns));
+        FloatBuffer view = buf.asFloatBuffer();
+        view.put(weights);
+        buf.position(buf.position() + weights.length * WeightFile.FLOAT);
+        WeightFile.putBounds(buf, actFns, asymA, asymB);
+        WeightFile.finish(buf, out);
+    }
+
+    /**
+     * Load the weights from a binary weight file of either precision.
+     * @param filename of type File
+     * @throws IOException if the file does not match the neural net structure
+     */
+    public void load(File filename) throws IOException {
+        WeightFile file = WeightFile.read(filename);
+        file.expectStructure(new int[]{numInputs, numHidden, 1}, new NeuralNet.ActFnType[]{actFn, actFn});
+        file.expectSections(WeightFile.SECTION_BOUNDS);
+        double [] bounds = file.getBounds();
+        file.get(weights);
+        if (bounds != null) {
+            asymA = bounds[0];
+            asymB = bounds[1];
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.robocode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Online standardization of the input vector of a neural net: x' = (x - mean) / std per input.
+ * - observe()   : updates the running mean and variance with Welford's algorithm (numerically stable,
+ *                 one pass, no sample is kept)
+ * - normalize() : writes the standardized inputs into a caller-supplied array, so it does not allocate
+ * - freeze()    : stops the statistics from changing, e.g. once they are representative, so that the
+ *                 function learned by the net no longer moves under it
+ * Inputs with a variance below minVariance (e.g. constant inputs) are only centered.
+ * The statistics are stored as a section of the binary weight file (see WeightFile).
+ */
+public class InputNormalizer {
+    static final double minVariance = 1e-8;
+    static final int HEADER_SIZE = 16;  // # of inputs, frozen flag, # of samples
+
+    private final int numInputs;
+    private long count = 0;             // # of samples observed
+    private final double [] mean;
+    private final double [] m2;         // Sum of squared differences from the mean
+    private final double [] invStd;     // 1 / standard deviation, updated by observe()
+    private boolean frozen = false;
+
+    // Constructor
+    public InputNormalizer(int numInputs) {
+        this.numInputs = numInputs;
+        mean = new double[numInputs];
+        m2 = new double[numInputs];
+        invStd = new double[numInputs];
+        Arrays.fill(invStd, 1.0);
+    }
+
+    /**
+     * Update the running statistics with a sample, unless frozen.
+     * @param x The input vector, inputs 0..numInputs-1 are used.
+     */
+    public void observe(double [] x) {
+        if (frozen) return;
+        count++;
+        for (int j = 0; j < numInputs; j++) {
+            double delta = x[j] - mean[j];
+            mean[j] += delta / count;
+            m2[j] += delta * (x[j] - mean[j]);
+            updateInvStd(j);
+        }
+    }
+
+    /**
+     * Recompute 1 / std of an input from its sum of squared differences.
+     */
+    private void updateInvStd(int j) {
+        double variance = count > 0 ? m2[j] / count : 0.0;
+        invStd[j] = variance > minVariance ? 1 / Math.sqrt(variance) : 1.0;
+    }
+
+    /**
+     * Standardize an input vector.
+     * @param x The input vector.
+     * @param out Output: the standardized inputs (may be x itself).
+     * @return out.
+     */
+    public double [] normalize(double [] x, double [] out) {
+        for (int j = 0; j < numInputs; j++) {
+            out[j] = (x[j] - mean[j]) * invStd[j];
+        }
+        return out;
+    }
+
+    /**
+     * Fold the standardization into the weights of the first layer, so that the raw inputs can be fed to
+     * a net without normalizer: w' = w / std, bias' = bias - sum(w * mean / std).
+     * Columns after the normalized inputs (e.g. one-hot columns) are not changed.
+     * @param weights Weights of each neuron of the first layer, bias weight last (not modified).
+     * @return the folded weights.
+     */
+    public double [][] fold(double [][] weights) {
+        double [][] folded = new double[weights.length][];
+        for (int i = 0; i < weights.length; i++) {
+            folded[i] = weights[i].clone();
+            int bias = weights[i].length - 1;
+            for (int j = 0; j < numInputs; j++) {
+                folded[i][j] = weights[i][j] * invStd[j];
+                folded[i][bias] -= weights[i][j] * mean[j] * invStd[j];
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * Return a normalizer with the same statistics.
+     * @return the copy.
+     */
+    public InputNormalizer copy() {
+        InputNormalizer normalizer = new InputNormalizer(numInputs);
+        normalizer.set(this);
+        return normalizer;
+    }
+
+    /**
+     * Copy the statistics of another normalizer with the same # of inputs.
+     * @param other The normalizer to copy from.
+     */
+    public void set(InputNormalizer other) {
+        count = other.count;
+        frozen = other.frozen;
+        System.arraycopy(other.mean, 0, mean, 0, numInputs);
+        System.arraycopy(other.m2, 0, m2, 0, numInputs);
+        System.arraycopy(other.invStd, 0, invStd, 0, numInputs);
+    }
+
+    /**
+     * Forget the statistics (and unfreeze).
+     */
+    public void reset() {
+        count = 0;
+        frozen = false;
+        Arrays.fill(mean, 0.0);
+        Arrays.fill(m2, 0.0);
+        Arrays.fill(invStd, 1.0);
+    }
+
+    /**
+     * Return the # of bytes written by put().
+     * @return the size of the weight file section.
+     */
+    public int byteSize() {
+        return HEADER_SIZE + 2 * numInputs * WeightFile.DOUBLE;
+    }
+
+    /**
+     * Write the statistics: # of inputs, frozen flag, # of samples, means, sums of squared differences.
+     * @param buf The buffer.
+     */
+    public void put(ByteBuffer buf) {
+        buf.putInt(numInputs);
+        buf.putInt(frozen ? 1 : 0);
+        buf.putLong(count);
+        for (double m : mean) buf.putDouble(m);
+        for (double m : m2) buf.putDouble(m);
+    }
+
+    /**
+     * Read the statistics written by put().
+     * @param buf The buffer.
+     * @param numInputs The expected # of inputs.
+     * @return the normalizer.
+     * @throws IOException if the # of inputs or the size does not match.
+     */
+    public static InputNormalizer read(ByteBuffer buf, int numInputs) throws IOException {
+        InputNormalizer normalizer = new InputNormalizer(numInputs);
+        if (buf.remaining() != normalizer.byteSize() || buf.getInt() != numInputs) {
+            throw new IOException("Input normalizer does not match " + numInputs + " inputs");
+        }
+        normalizer.frozen = buf.getInt() != 0;
+        normalizer.count = buf.getLong();
+        if (normalizer.count < 0) throw new IOException("Invalid input normalizer sample count");
+        for (int j = 0; j < numInputs; j++) normalizer.mean[j] = buf.getDouble();
+        for (int j = 0; j < numInputs; j++) normalizer.m2[j] = buf.getDouble();
+        for (int j = 0; j < numInputs; j++) normalizer.updateInvStd(j);
+        return normalizer;
+    }
+
+    // Get and set methods
+    public void freeze() { frozen = true; }
+    public void setFrozen(boolean frozen) { this.frozen = frozen; }
+    public boolean isFrozen() { return frozen; }
+    public long getCount() { return count; }
+    public int getNumInputs() { return numInputs; }
+    public double getMean(int j) { return mean[j]; }
+    public double getStd(int j) { return 1 / invStd[j]; }
+}
@@ -2,6 +2,10 @@ package com.robocode;
 
 import robocode.*;
 import java.io.*;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Objects;
+import java.util.SplittableRandom;
 
 /**
  * Lookup table for Robocode Reinforcement Learning
@@ -18,11 +22,16 @@ import java.io.*;
  * - Action (5):
  *   - {Circle clockwise, circle anticlockwise, advance, retreat, fire}
  * Total number of entries in LUT = 8 x 6 x 4 x 4 x 5 = 3840
+ * The entries are stored in flat arrays, index = ((((s1 * d2 + s2) * d3 + s3) * d4 + s4) * dA + a),
+ * so that learners can keep {state, action} entries as a single int index.
+ * The flat arrays are double and int buffers: heap arrays by default, or off-heap (see OffHeapStore)
+ * when created by offHeap(), e.g. mapped to a file that persists the cells without save() and load().
  */
 
 public class LUT implements CommonInterface {
-    private double [][][][][] lut;      // Q value
-    private int [][][][][] accessCnt;   // Access count
+    private DoubleBuffer lut;           // Q value
+    private IntBuffer accessCnt;        // Access count
+    private OffHeapStore store = null;  // Storage of the cells if off-heap (null = heap arrays)
     private int state1Dim;              // Dimension for state 1
     private int state2Dim;              // Dimension for state 2
     private int state3Dim;              // Dimension for state 3
@@ -32,6 +41,12 @@ public class LUT implements CommonInterface {
 
     // Constructor
     public LUT (int state1Dim, int state2Dim, int state3Dim, int state4Dim, int actionDim, boolean randomQ) {
+        this(state1Dim, state2Dim, state3Dim, state4Dim, actionDim, randomQ, null);
+    }
+
+    // Constructor with the storage of the cells (null = heap arrays)
+    private LUT (int state1Dim, int state2Dim, int state3Dim, int state4Dim, int actionDim, boolean randomQ,
+                 OffHeapStore store) {
         this.state1Dim = state1Dim;
         this.state2Dim = state2Dim;
         this.state3Dim = state3Dim;
@@ -39,42 +54,107 @@ public class LUT implements CommonInterface {
         this.actionDim = actionDim;
         this.randomQ = randomQ;
 
-        lut = new double [state1Dim][state2Dim][state3Dim][state4Dim][actionDim];
-        accessCnt = new int [state1Dim][state2Dim][state3Dim][state4Dim][actionDim];
+        int size = state1Dim * state2Dim * state3Dim * state4Dim * actionDim;
+        this.store = store;
+        if (store == null) {
+            lut = DoubleBuffer.wrap(new double [size]);
+            accessCnt = IntBuffer.wrap(new int [size]);
+        } else {
+            lut = store.doubles(0, size);
+            accessCnt = store.ints(size * 8, size);
+        }
 
-        this.initLUT();
+        // The cells of an existing store file are kept
+        if (store == null || !store.isExisting()) this.initLUT();
+    }
+
+    /**
+     * Create a LUT whose cells are stored off-heap.
+     * @param file The file the cells are mapped to (existing cells are reused), null = direct buffer.
+     * @return the LUT.
+     * @throws IOException if the file cannot be mapped or has other dimensions.
+     */
+    public static LUT offHeap (int state1Dim, int state2Dim, int state3Dim, int state4Dim, int actionDim,
+                               boolean randomQ, File file) throws IOException {
+        int size = state1Dim * state2Dim * state3Dim * state4Dim * actionDim;
+        int bytes = size * (8 + 4);
+        OffHeapStore store = file == null ? OffHeapStore.allocate(bytes) :
+                OffHeapStore.map(file, OffHeapStore.KIND_LUT,
+                        new int[]{state1Dim, state2Dim, state3Dim, state4Dim, actionDim}, bytes);
+        return new LUT(state1Dim, state2Dim, state3Dim, state4Dim, actionDim, randomQ, store);
+    }
+
+    /**
+     * Write the cells of a LUT mapped to a file to disk (no-op otherwise).
+     */
+    public void force () {
+        if (store != null) store.force();
     }
 
     /**
      * Initialize the lut array to random number between {0, 1} or zero.
      * Initialize the accessCnt array to 0.
+     * The random numbers come from the calling thread's stream (see Rng).
      */
     public void initLUT () {
-        for (int a = 0; a < state1Dim; a++) {
-            for (int b = 0; b < state2Dim; b++) {
-                for (int c = 0; c < state3Dim; c++) {
-                    for (int d = 0; d < state4Dim; d++) {
-                        for (int e = 0; e < actionDim; e++) {
-                            if (randomQ)
-                                lut[a][b][c][d][e] = Math.random();
-                            else
-                                lut[a][b][c][d][e] = 0.0;
-                            accessCnt[a][b][c][d][e] = 0;
-                        }
+        initLUT(Rng.current());
+    }
 
-                    }
-                }
-            }
+    /**
+     * Initialize the lut array to random number between {0, 1} from a given generator or zero.
+     * Initialize the accessCnt array to 0.
+     * @param rnd The random number generator.
+     */
+    public void initLUT (SplittableRandom rnd) {
+        for (int i = 0; i < lut.capacity(); i++) {
+            if (randomQ)
+                lut.put(i, rnd.nextDouble());
+            else
+                lut.put(i, 0.0);
+            accessCnt.put(i, 0);
         }
     }
 
+    /**
+     * Return the index of a {state, action} entry in the flat arrays.
+     * @param x The {state, action} vector.
+     * @return index of the corresponding {state, action} LUT entry.
+     * @throws IndexOutOfBoundsException if a component is outside its dimension (it would alias another entry).
+     */
+    public int indexFor (double [] x) {
+        int s1 = Objects.checkIndex((int)x[0], state1Dim);
+        int s2 = Objects.checkIndex((int)x[1], state2Dim);
+        int s3 = Objects.checkIndex((int)x[2], state3Dim);
+        int s4 = Objects.checkIndex((int)x[3], state4Dim);
+        int a = Objects.checkIndex((int)x[4], actionDim);
+        return (((s1 * state2Dim + s2) * state3Dim + s3) * state4Dim + s4) * actionDim + a;
+    }
+
+    /**
+     * Return Q-value of the entry at an index.
+     * @param index The index returned by indexFor().
+     * @return Q-value of the entry.
+     */
+    public double getQ (int index) {
+        return lut.get(index);
+    }
+
+    /**
+     * Add a change to the Q-value of the entry at an index, e.g. a trace weighted TD update.
+     * @param index The index returned by indexFor().
+     * @param delta The change of Q-value.
+     */
+    public void addQ (int index, double delta) {
+        lut.put(index, lut.get(index) + delta);
+    }
+
     /**
      * Return access count of a {state, action} entry.
      * @param x The {state, action} vector.
      * @return access count of the corresponding {state, action} LUT entry.
      */
     public int getAccessCnt (double [] x) {
-        return accessCnt[(int)x[0]][(int)x[1]][(int)x[2]][(int)x[3]][(int)x[4]];
+        return accessCnt.get(indexFor(x));
     }
 
     /**
@@ -84,7 +164,7 @@ public class LUT implements CommonInterface {
      */
     @Override
     public double outputFor (double [] x) {
-        return lut[(int)x[0]][(int)x[1]][(int)x[2]][(int)x[3]][(int)x[4]];
+        return lut.get(indexFor(x));
     }
 
     /**
@@ -96,14 +176,16 @@ public class LUT implements CommonInterface {
         PrintStream w = null;
         try {
             w = new PrintStream(new RobocodeFileOutputStream(filename));
+            int i = 0;
             for (int a = 0; a < state1Dim; a++) {
                 for (int b = 0; b < state2Dim; b++) {
                     for (int c = 0; c < state3Dim; c++) {
                         for (int d = 0; d < state4Dim; d++) {
                             for (int e = 0; e < actionDim; e++) {
                                 w.println(a + "" + b + "" + c + "" + d + "" + e + "\t" +
-                                        lut[a][b][c][d][e] + "\t" +
-                                        accessCnt[a][b][c][d][e]);
+                                        lut.get(i) + "\t" +
+                                        accessCnt.get(i));
+                                i++;
                             }
                         }
                     }
@@ -134,8 +216,9 @@ public class LUT implements CommonInterface {
                 int c = Character.getNumericValue(splitLine[0].charAt(2));
                 int d = Character.getNumericValue(splitLine[0].charAt(3));
                 int e = Character.getNumericValue(splitLine[0].charAt(4));
-                lut[a][b][c][d][e] = Double.valueOf(splitLine[1]);
-                accessCnt[a][b][c][d][e] = Integer.valueOf(splitLine[2]);
+                int i = (((a * state2Dim + b) * state3Dim + c) * state4Dim + d) * actionDim + e;
+                lut.put(i, Double.valueOf(splitLine[1]));
+                accessCnt.put(i, Integer.valueOf(splitLine[2]));
                 line = reader.readLine();
             }
         } catch (IOException e) {
@@ -152,13 +235,9 @@ public class LUT implements CommonInterface {
      */
     @Override
     public void train(double[] x, double target) {
-        int a = (int)x[0];
-        int b = (int)x[1];
-        int c = (int)x[2];
-        int d = (int)x[3];
-        int e = (int)x[4];
-
-        lut[a][b][c][d][e] = target;
-        accessCnt[a][b][c][d][e]++;
+        int i = indexFor(x);
+
+        lut.put(i, target);
+        accessCnt.put(i, accessCnt.get(i) + 1);
     }
 }
\ No newline at end of file
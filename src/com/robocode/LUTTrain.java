@@ -4,9 +4,27 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class LUTTrain {
+    /**
+     * Result of one fold of k-fold cross-validation
+     */
+    public static class FoldResult {
+        int fold;
+        int epochs;
+        double trainError;          // RMS error of the training folds at the last epoch
+        double validError;          // RMS error of the validation fold at the last epoch
+        long nanos;                 // Wall-clock time of the fold
+        TrainController.StopReason stopReason;
+    }
+
     /**
      * This is the main program that attempts to train the static robocode LUT data to give a set of hyper-parameters
      * - Prompt user input on neural net parameters (learning rate, momentum, # of hidden nodes)
@@ -15,15 +33,31 @@ public class LUTTrain {
      * -   Initialize the neural net
      * -   For each epoch, train all samples in training set
      * -     Accumulate total error and write to file
-     * -     If total error < threshold then write weights data to file (optional)
-     * -     Else repeat training
-     * @param args Command line arguments
+     * -     Compute error of the held-out validation set
+     * -     If total error < threshold, epoch cap is reached or validation error has plateaued
+     * -       then write weights data to file (optional) and report the stop reason
+     * -     Else repeat training with the learning rate given by the schedule
+     * With k-fold cross-validation the trials are replaced by k concurrent trainings, each validated on
+     * the rows i with i % k == fold, and the mean and variance of the validation errors are reported.
+     * @param args Command line arguments, optional: # of folds k for k-fold cross-validation (0 = off)
      */
     public static void main(String[] args) {
+        int numFolds = args.length > 0 ? Integer.parseInt(args[0]) : 0;
         double totalError;
         double acceptError = 0.05;
         int epoch;
-        FileWriter errorFile = null, weightFile = null, epochFile = null;
+
+        // Stopping criteria and learning rate schedule
+        int maxEpochs = 20000;      // Epoch cap of a trial (0 if no cap)
+        int patience = 500;         // # of epochs without validation improvement before stopping (0 if disabled)
+        double minDelta = 1e-5;     // Minimum decrease of validation error to count as improvement
+        double validFraction = 0.2; // Fraction of the training data held out for validation (0 if none)
+        TrainController controller = new TrainController(acceptError, maxEpochs, patience, minDelta,
+                TrainController.LRSchedule.CONSTANT, 0.5, 1000);
+        FileWriter weightFile = null, epochFile = null;
+        EpochLogger errorLog = null;
+        int logBatchSize = 4096;    // # of epochs buffered before an asynchronous write to the error files
+        int consoleInterval = 100;  // Print every n-th epoch to console
 
         /**
          * Training data sets (inputs and outputs) for LUT using bipolar representation.
@@ -38,6 +72,7 @@ public class LUTTrain {
         double learningRate, momentumTerm;
         int numHidden;
         boolean saveWeight = false; // Y = write trained weights to output file
+        Optimizer.Type optimizer = null; // Weight update rule (null = classic momentum)
         int numTrial = 1; // One trial = one complete training cycle to convergence = produce one output file
 
         // Prompt user input on training parameters
@@ -63,8 +98,27 @@ public class LUTTrain {
             e.printStackTrace();
         }
 
+        // Hold out the last part of the shuffled training data for validation
+        shuffle(trainInput, trainOutput, numTrainSet);
+
+        if (numFolds > 1) {
+            long startTime = System.nanoTime();
+            try {
+                FoldResult [] results = crossValidate(trainInput, trainOutput, numTrainSet, numFolds, actFn, numHidden,
+                        learningRate, momentumTerm, optimizer, controller, Runtime.getRuntime().availableProcessors());
+                report(results, System.nanoTime() - startTime);
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+            return;
+        }
+        int numValidSet = (int) (numTrainSet * validFraction);
+        int numFitSet = numTrainSet - numValidSet;
+
         // Create and initialize NN
         NeuralNet lutNN = new NeuralNet(actFn,5,numHidden, learningRate, momentumTerm, -1, 1);
+        lutNN.setOptimizer(optimizer);
 
         epochFile = lutNN.createFile("epoch_cnt.txt");
 
@@ -76,28 +130,43 @@ public class LUTTrain {
 
             // Create output file containing epoch number and total error
             int fileSuf = t + 1;
-            errorFile = lutNN.createFile("lut_out_" + fileSuf + ".txt");
-            lutNN.writeHeader(errorFile);
+            try {
+                errorLog = new EpochLogger("lut_out_" + fileSuf + ".csv", "lut_out_" + fileSuf + ".bin",
+                        logBatchSize, consoleInterval);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(-1);
+            }
 
             // Repeat training by presenting all training data in each epoch in the NN
-            // Until total error is less than threshold value.
+            // Until total error is less than threshold value or the controller stops the trial.
             double RMSError = 0.0;
+            double validError = Double.NaN;
+            controller.reset();
             do {
                 totalError = 0;
                 epoch++;
+                lutNN.setLearningRate(controller.learningRateFor(epoch, learningRate));
 
-                //for (int i = 0; i < trainInput.length; i++) {
-                for (int i = 0; i < numTrainSet; i++) {
+                for (int i = 0; i < numFitSet; i++) {
                     lutNN.train(trainInput[i], trainOutput[i]);
                     totalError += lutNN.sqError(trainOutput[i], lutNN.activatedOutput);
                 }
-                RMSError = Math.sqrt(totalError / numTrainSet);
+                RMSError = Math.sqrt(totalError / numFitSet);
+
+                if (numValidSet > 0) {
+                    validError = rmsError(lutNN, trainInput, trainOutput, numFitSet, numTrainSet);
+                }
 
                 // Write total error to file after each epoch
-                lutNN.writeDetail(errorFile, epoch, RMSError);
-            } while (RMSError > acceptError);
+                errorLog.record(epoch, RMSError);
+            } while (!controller.update(epoch, RMSError, validError));
+
+            System.out.println("Trial " + fileSuf + " stopped at epoch " + epoch + ": " + controller.getStopReason() +
+                    " (train RMS = " + RMSError + ", best validation RMS = " + controller.getBestError() +
+                    " at epoch " + controller.getBestEpoch() + ")");
 
-            lutNN.closeFile(errorFile);
+            errorLog.close();
 
             // Save weights to weight file if needed
             if (saveWeight) {
@@ -111,6 +180,172 @@ public class LUTTrain {
         lutNN.closeFile(epochFile);
     }
 
+    /**
+     * Train one NN per fold concurrently. The data set is partitioned by index without copying: fold f
+     * validates on the rows i with i % numFolds == f and trains on the others.
+     * The weights of fold f are initialized from random stream f (see Rng), so runs with the same seed repeat.
+     * @param input array of input vectors (shuffled, read only).
+     * @param output array of expected outputs (read only).
+     * @param n number of rows in use.
+     * @param numFolds number of folds k.
+     * @param controller stopping criteria and learning rate schedule, copied for each fold.
+     * @param numThreads number of threads.
+     * @return the result of each fold.
+     */
+    public static FoldResult [] crossValidate(double [][] input, double [] output, int n, int numFolds,
+                                              NeuralNet.ActFnType actFn, int numHidden, double learningRate,
+                                              double momentumTerm, Optimizer.Type optimizer,
+                                              TrainController controller, int numThreads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numFolds, numThreads));
+        try {
+            List<Future<FoldResult>> futures = new ArrayList<>();
+            for (int f = 0; f < numFolds; f++) {
+                final int fold = f;
+                futures.add(executor.submit(() -> {
+                    NeuralNet nn = new NeuralNet(actFn, input[0].length, numHidden, learningRate, momentumTerm, -1, 1);
+                    nn.setOptimizer(optimizer);
+                    nn.initializeWeights(Rng.forStream(fold));
+                    nn.zeroWeights();
+                    return trainFold(nn, input, output, n, numFolds, fold, learningRate, controller.copy());
+                }));
+            }
+            FoldResult [] results = new FoldResult[numFolds];
+            for (int f = 0; f < numFolds; f++) {
+                results[f] = futures.get(f).get();
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Train a NN on all folds but one until the controller stops it.
+     * @param nn The initialized neural net.
+     * @param input array of input vectors.
+     * @param output array of expected outputs.
+     * @param n number of rows in use.
+     * @param numFolds number of folds k.
+     * @param fold the validation fold.
+     * @param learningRate the base learning rate of the schedule.
+     * @param controller the controller of this fold.
+     * @return the result of the fold.
+     */
+    static FoldResult trainFold(NeuralNet nn, double [][] input, double [] output, int n, int numFolds, int fold,
+                                double learningRate, TrainController controller) {
+        long startTime = System.nanoTime();
+        int numTrain = 0;
+        for (int i = 0; i < n; i++) {
+            if (i % numFolds != fold) numTrain++;
+        }
+
+        int epoch = 0;
+        double trainError, validError;
+        do {
+            epoch++;
+            nn.setLearningRate(controller.learningRateFor(epoch, learningRate));
+            double totalError = 0;
+            for (int i = 0; i < n; i++) {
+                if (i % numFolds == fold) continue;
+                nn.train(input[i], output[i]);
+                totalError += nn.sqError(output[i], nn.activatedOutput);
+            }
+            trainError = Math.sqrt(totalError / numTrain);
+            validError = rmsErrorFold(nn, input, output, n, numFolds, fold);
+        } while (!controller.update(epoch, trainError, validError));
+
+        FoldResult result = new FoldResult();
+        result.fold = fold;
+        result.epochs = epoch;
+        result.trainError = trainError;
+        result.validError = validError;
+        result.nanos = System.nanoTime() - startTime;
+        result.stopReason = controller.getStopReason();
+        return result;
+    }
+
+    /**
+     * Print each fold and the mean and variance of the validation errors.
+     * @param results the results of the folds.
+     * @param totalNanos wall-clock time of the cross-validation.
+     */
+    static void report(FoldResult [] results, long totalNanos) {
+        System.out.println("Fold" + "\t" + "Epochs" + "\t" + "Train RMS" + "\t" + "Valid RMS" + "\t" + "Time (ms)" +
+                "\t" + "Stop reason");
+        double mean = 0;
+        long sumNanos = 0;
+        for (FoldResult r : results) {
+            System.out.printf("%d\t%d\t%.6f\t%.6f\t%.1f\t%s%n", r.fold + 1, r.epochs, r.trainError, r.validError,
+                    r.nanos / 1e6, r.stopReason);
+            mean += r.validError / results.length;
+            sumNanos += r.nanos;
+        }
+        double variance = 0;
+        for (FoldResult r : results) {
+            variance += (r.validError - mean) * (r.validError - mean) / Math.max(1, results.length - 1);
+        }
+        System.out.printf("Validation RMS mean = %.6f, variance = %.3g%n", mean, variance);
+        System.out.printf("Wall-clock = %.1f ms for %.1f ms of fold training%n", totalNanos / 1e6, sumNanos / 1e6);
+    }
+
+    /**
+     * Return the RMS error of the NN over the rows i of the data set with i % numFolds == fold.
+     * @param nn The neural net.
+     * @param input array of input vectors.
+     * @param output array of expected outputs.
+     * @param n number of rows in use.
+     * @param numFolds number of folds.
+     * @param fold the fold.
+     * @return RMS error over the fold.
+     */
+    public static double rmsErrorFold(NeuralNet nn, double [][] input, double [] output, int n, int numFolds, int fold) {
+        double totalError = 0;
+        int count = 0;
+        for (int i = fold; i < n; i += numFolds) {
+            totalError += nn.sqError(output[i], nn.outputFor(input[i]));
+            count++;
+        }
+        return Math.sqrt(totalError / count);
+    }
+
+    /**
+     * Return the RMS error of the NN over a range of the data set.
+     * @param nn The neural net.
+     * @param input array of input vectors.
+     * @param output array of expected outputs.
+     * @param from first index of the range (inclusive).
+     * @param to last index of the range (exclusive).
+     * @return RMS error over the range.
+     */
+    public static double rmsError(NeuralNet nn, double [][] input, double [] output, int from, int to) {
+        double totalError = 0;
+        for (int i = from; i < to; i++) {
+            totalError += nn.sqError(output[i], nn.outputFor(input[i]));
+        }
+        return Math.sqrt(totalError / (to - from));
+    }
+
+    /**
+     * Shuffle the first n rows of the data set in place (Fisher-Yates) so that the
+     * validation set is not biased towards the last {state, action} entries of the LUT.
+     * The random numbers come from the calling thread's stream (see Rng).
+     * @param input array of input vectors.
+     * @param output array of expected outputs.
+     * @param n number of rows in use.
+     */
+    public static void shuffle(double [][] input, double [] output, int n) {
+        SplittableRandom rnd = Rng.current();
+        for (int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            double [] tempInput = input[i];
+            input[i] = input[j];
+            input[j] = tempInput;
+            double tempOutput = output[i];
+            output[i] = output[j];
+            output[j] = tempOutput;
+        }
+    }
+
     /**
      * Load LUT file (from assignment part 2) into training data set
      * @param trainInput array of training input.
@@ -0,0 +1,97 @@
+package com.robocode;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Allocation-free latency histogram with log-linear buckets (HDR histogram style).
+ * Values below 2 * subBuckets nanoseconds have exact buckets, larger values are grouped in
+ * buckets of relative width 1/subBuckets (about 6%), up to maxExp powers of 2 (~2.5 hours).
+ */
+public class LatencyHistogram {
+    static final int subBits = 4;
+    static final int subBuckets = 1 << subBits;     // Buckets per power of 2
+    static final int maxExp = 40;                   // Largest shift of a bucket
+
+    private final long [] counts = new long[(maxExp + 2) * subBuckets];
+    private long totalCount = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    /**
+     * Return the bucket index of a value.
+     * @param nanos The value in nanoseconds.
+     * @return bucket index.
+     */
+    static int bucketFor(long nanos) {
+        if (nanos < 2 * subBuckets) return (int) Math.max(0, nanos);
+        int exp = Math.min(maxExp, 63 - Long.numberOfLeadingZeros(nanos) - subBits);
+        long sub = Math.min(2 * subBuckets - 1, nanos >>> exp);
+        return exp * subBuckets + (int) sub;
+    }
+
+    /**
+     * Return the highest value of a bucket.
+     * @param bucket The bucket index.
+     * @return highest value in nanoseconds.
+     */
+    static long highestFor(int bucket) {
+        if (bucket < 2 * subBuckets) return bucket;
+        int exp = bucket / subBuckets - 1;
+        long sub = bucket - exp * subBuckets;
+        return ((sub + 1) << exp) - 1;
+    }
+
+    /**
+     * Record a latency.
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        counts[bucketFor(nanos)]++;
+        totalCount++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    /**
+     * Return the latency at a percentile (upper bound of the bucket).
+     * @param percentile The percentile {0..100}.
+     * @return latency in nanoseconds.
+     */
+    public long percentile(double percentile) {
+        if (totalCount == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if (count >= target) return Math.min(highestFor(i), maxNanos);
+        }
+        return maxNanos;
+    }
+
+    /**
+     * Clear all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    /**
+     * Print count, mean, percentiles and max in microseconds.
+     * @param out The output stream.
+     * @param name The name of the histogram.
+     */
+    public void print(PrintStream out, String name) {
+        out.format("%s, %d, %.1f, %.1f, %.1f, %.1f, %.1f, %.1f,%n", name, totalCount,
+                totalCount == 0 ? 0.0 : totalNanos / 1e3 / totalCount,
+                percentile(50) / 1e3, percentile(90) / 1e3, percentile(99) / 1e3, percentile(99.9) / 1e3,
+                maxNanos / 1e3);
+    }
+
+    // Get methods
+    public long getTotalCount() { return totalCount; }
+    public long getMaxNanos() { return maxNanos; }
+}
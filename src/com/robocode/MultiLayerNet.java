@@ -0,0 +1,349 @@
+package com.robocode;
+
+import robocode.RobocodeFileOutputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * Neural net with an arbitrary number of layers.
+ * - layerSizes[0] is the dimension of the input vector, layerSizes[L-1] the dimension of the output layer
+ * - actFns[l-1] is the activation function of layer l (l = 1..L-1)
+ * - All weights are stored contiguously in one array, layer by layer, neuron by neuron,
+ *   with the bias weight last in each neuron row (same order as the binary weight file)
+ * - Activations, deltas and last weight changes are preallocated so that outputFor() and
+ *   train() do not allocate
+ * - Weights, last weight changes and optimizer state are double buffers: heap arrays by default,
+ *   or off-heap after moveOffHeap() (direct buffer or memory-mapped file, see OffHeapStore)
+ * As with NeuralNet, the CommonInterface methods assume a single output value (output neuron 0).
+ * A MultiLayerNet with layers {n, h, 1} loads the weight files saved by NeuralNet and vice versa.
+ */
+public class MultiLayerNet implements CommonInterface {
+    /**
+     * Parameters of the Neural Net
+     */
+    private int [] layerSizes;              // # of neurons of each layer (excluding bias)
+    private NeuralNet.ActFnType [] actFns;  // Activation function of each non-input layer
+    private double learningRate;            // The learning rate coefficient
+    private double momentumTerm;            // The momentum coefficient
+    private double asymA;                   // custom sigmoid lower bound
+    private double asymB;                   // custom sigmoid upper bound
+
+    /**
+     * Data structures of the Neural Net layers
+     */
+    DoubleBuffer weights;       // All weights
+    DoubleBuffer lastDelta;     // Last weight change of all weights for the momentum term
+    int [] weightOffset;        // Index of the first weight of layer l in weights[] (l = 1..L-1)
+
+    double [] activated;        // Activated signals of all layers (layer 0 = copy of the input vector)
+    double [] delta;            // Deltas (local gradients) of all layers (layer 0 unused)
+    int [] neuronOffset;        // Index of the first neuron of layer l in activated[] and delta[]
+
+    Optimizer optimizer = null; // Adaptive weight update rule (null = classic momentum)
+    OffHeapStore store = null;  // Off-heap storage of the buffers (null = heap)
+
+    public MultiLayerNet(
+            int [] layerSizes,
+            NeuralNet.ActFnType [] actFns,
+            double learningRate,
+            double momentumTerm,
+            double asymA,
+            double asymB) {
+        if (layerSizes.length < 2 || actFns.length != layerSizes.length - 1) {
+            throw new IllegalArgumentException("Need at least 2 layers and one activation function per non-input layer");
+        }
+        this.layerSizes = layerSizes.clone();
+        this.actFns = actFns.clone();
+        this.learningRate = learningRate;
+        this.momentumTerm = momentumTerm;
+        this.asymA = asymA;
+        this.asymB = asymB;
+
+        // Offsets of each layer in the contiguous arrays (+1 is used to include "bias" weight)
+        int numLayers = layerSizes.length;
+        weightOffset = new int[numLayers + 1];
+        neuronOffset = new int[numLayers + 1];
+        for (int l = 0; l < numLayers; l++) {
+            neuronOffset[l + 1] = neuronOffset[l] + layerSizes[l];
+            weightOffset[l + 1] = weightOffset[l] + (l == 0 ? 0 : layerSizes[l] * (layerSizes[l - 1] + 1));
+        }
+
+        weights = DoubleBuffer.wrap(new double[weightOffset[numLayers]]);
+        lastDelta = DoubleBuffer.wrap(new double[weightOffset[numLayers]]);
+        activated = new double[neuronOffset[numLayers]];
+        delta = new double[activated.length];
+    }
+
+    /**
+     * Create a neural net with one hidden layer, i.e. the same structure as NeuralNet.
+     * @return neural net with layers {numInputs, numHidden, 1}.
+     */
+    public static MultiLayerNet singleHidden(NeuralNet.ActFnType actFn, int numInputs, int numHidden,
+                                             double learningRate, double momentumTerm, double asymA, double asymB) {
+        return new MultiLayerNet(new int[]{numInputs, numHidden, 1}, new NeuralNet.ActFnType[]{actFn, actFn},
+                learningRate, momentumTerm, asymA, asymB);
+    }
+
+    /**
+     * Return the activation of an induced local field.
+     * @param actFn The activation function.
+     * @param v The induced local field.
+     * @return activated signal.
+     */
+    private double activate(NeuralNet.ActFnType actFn, double v) {
+        switch (actFn) {
+            case BINARY:
+                return 1 / (1 + Math.exp(-v));
+            case CUSTOM:
+                return ((asymB - asymA) / (1 + Math.exp(-v))) - (-asymA);
+            default:
+                return (2 / (1 + Math.exp(-v))) - 1;
+        }
+    }
+
+    /**
+     * Return the derivative of the activation function in terms of the activated signal y.
+     * For a sigmoid bounded by (a, b): f'(y) = (y - a) * (b - y) / (b - a).
+     * @param actFn The activation function.
+     * @param y The activated signal.
+     * @return derivative.
+     */
+    private double derivative(NeuralNet.ActFnType actFn, double y) {
+        switch (actFn) {
+            case BINARY:
+                return y * (1 - y);
+            case CUSTOM:
+                return (y - asymA) * (asymB - y) / (asymB - asymA);
+            default:
+                return 0.5 * (1 + y) * (1 - y);
+        }
+    }
+
+    /**
+     * Initialize the weights to random values between -0.5 and 0.5 and clear the last weight changes.
+     * The random numbers come from the calling thread's stream (see Rng).
+     */
+    public void initializeWeights() {
+        initializeWeights(Rng.current());
+    }
+
+    /**
+     * Initialize the weights to random values between -0.5 and 0.5 from a given generator
+     * and clear the last weight changes.
+     * @param rnd The random number generator.
+     */
+    public void initializeWeights(SplittableRandom rnd) {
+        for (int i = 0; i < weights.capacity(); i++) {
+            weights.put(i, rnd.nextDouble() - 0.5);
+        }
+        zeroWeights();
+    }
+
+    /**
+     * Clear the last weight changes (momentum history).
+     */
+    public void zeroWeights() {
+        for (int i = 0; i < lastDelta.capacity(); i++) {
+            lastDelta.put(i, 0.0);
+        }
+        if (optimizer != null) optimizer.reset();
+    }
+
+    /**
+     * Forward pass computing the activated signals of all layers.
+     * @param inputVector The input vector. An array of doubles.
+     * @return The activated signal of output neuron 0.
+     */
+    @Override
+    public double outputFor(double[] inputVector) {
+        System.arraycopy(inputVector, 0, activated, 0, layerSizes[0]);
+
+        for (int l = 1; l < layerSizes.length; l++) {
+            int fanIn = layerSizes[l - 1];
+            int in = neuronOffset[l - 1];
+            int w = weightOffset[l];
+            NeuralNet.ActFnType actFn = actFns[l - 1];
+
+            for (int j = neuronOffset[l]; j < neuronOffset[l + 1]; j++) {
+                double v = 0;
+                for (int k = 0; k < fanIn; k++) {
+                    v += weights.get(w + k) * activated[in + k];
+                }
+                v += weights.get(w + fanIn);  // Add bias weight
+                activated[j] = activate(actFn, v);
+                w += fanIn + 1;
+            }
+        }
+
+        return activated[neuronOffset[layerSizes.length - 1]];
+    }
+
+    /**
+     * Train output neuron 0 towards the desired output by back propagation.
+     * All deltas are computed with the weights before the update, then all weights are updated.
+     * @param inputVector The input vector
+     * @param desiredOutput The new value to learn
+     */
+    @Override
+    public void train(double[] inputVector, double desiredOutput) {
+        int last = layerSizes.length - 1;
+        if (optimizer != null) optimizer.beginStep();
+        outputFor(inputVector);
+
+        // Deltas at output layer (only neuron 0 carries an error)
+        for (int j = neuronOffset[last]; j < neuronOffset[last + 1]; j++) {
+            double error = j == neuronOffset[last] ? desiredOutput - activated[j] : 0;
+            delta[j] = error * derivative(actFns[last - 1], activated[j]);
+        }
+
+        // Back propagate deltas to hidden layers
+        for (int l = last - 1; l >= 1; l--) {
+            int fanIn = layerSizes[l];
+            NeuralNet.ActFnType actFn = actFns[l - 1];
+            for (int k = 0; k < fanIn; k++) {
+                double sum = 0;
+                int w = weightOffset[l + 1] + k;
+                for (int j = neuronOffset[l + 1]; j < neuronOffset[l + 2]; j++) {
+                    sum += weights.get(w) * delta[j];
+                    w += fanIn + 1;
+                }
+                int n = neuronOffset[l] + k;
+                delta[n] = sum * derivative(actFn, activated[n]);
+            }
+        }
+
+        // Update weights using learning rate, momentum and last weight change
+        for (int l = 1; l <= last; l++) {
+            int fanIn = layerSizes[l - 1];
+            int in = neuronOffset[l - 1];
+            int w = weightOffset[l];
+            for (int j = neuronOffset[l]; j < neuronOffset[l + 1]; j++) {
+                for (int k = 0; k <= fanIn; k++) {
+                    double input = k < fanIn ? activated[in + k] : NeuralNetInterface.bias;
+                    double change = optimizer != null ? optimizer.change(w, delta[j] * input) :
+                            learningRate * delta[j] * input + momentumTerm * lastDelta.get(w);
+                    weights.put(w, weights.get(w) + change);
+                    lastDelta.put(w, change);
+                    w++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the weights to a binary weight file (robocode version).
+     * @param filename of type File
+     */
+    @Override
+    public void save(File filename) {
+        OutputStream out = null;
+        try {
+            out = new RobocodeFileOutputStream(filename);
+            save(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write the weights to an output stream in the binary weight file format.
+     * @param out The output stream
+     * @throws IOException if the write fails
+     */
+    public void save(OutputStream out) throws IOException {
+        ByteBuffer buf = WeightFile.begin(layerSizes, actFns, WeightFile.DOUBLE, weights.capacity(),
+                WeightFile.boundsSize(actFns));
+        buf.asDoubleBuffer().put(weights.duplicate());
+        buf.position(buf.position() + weights.capacity() * WeightFile.DOUBLE);
+        WeightFile.putBounds(buf, actFns, asymA, asymB);
+        WeightFile.finish(buf, out);
+    }
+
+    /**
+     * Load the weights from a binary weight file with a single bulk read.
+     * @param filename of type File
+     * @throws IOException if the file does not match the structure of the neural net
+     */
+    @Override
+    public void load(File filename) throws IOException {
+        WeightFile file = WeightFile.read(filename);
+        file.expectStructure(layerSizes, actFns);
+        file.expectSections(WeightFile.SECTION_BOUNDS);
+        double [] bounds = file.getBounds();
+        file.get(weights);
+        if (bounds != null) {
+            asymA = bounds[0];
+            asymB = bounds[1];
+        }
+    }
+
+    /**
+     * Move the weights, the last weight changes and the optimizer state off-heap, so that the GC
+     * neither scans nor copies them.
+     * The store file holds the three buffers plus the second optimizer moment (4 doubles per weight).
+     * If the file exists its contents are used, e.g. the weights trained by a previous process (zero-copy
+     * load), otherwise the current weights and last weight changes are copied into it and the optimizer
+     * state restarts. The layer sizes are stored in the header of the file and checked when it is mapped again.
+     * @param file The store file to map, null = direct buffer (not persisted).
+     * @throws IOException if the file cannot be mapped or does not match the layer sizes.
+     */
+    public void moveOffHeap(File file) throws IOException {
+        int numWeights = weights.capacity();
+        int bytes = numWeights * WeightFile.DOUBLE;
+        OffHeapStore newStore = file == null ? OffHeapStore.allocate(4 * bytes) :
+                OffHeapStore.map(file, OffHeapStore.KIND_NET, layerSizes, 4 * bytes);
+        DoubleBuffer newWeights = newStore.doubles(0, numWeights);
+        DoubleBuffer newLastDelta = newStore.doubles(bytes, numWeights);
+        if (!newStore.isExisting()) {
+            newWeights.put(weights.duplicate()).clear();
+            newLastDelta.put(lastDelta.duplicate()).clear();
+        }
+        weights = newWeights;
+        lastDelta = newLastDelta;
+        store = newStore;
+        if (optimizer != null) setOptimizer(optimizer.getType());
+    }
+
+    /**
+     * Write the weights and optimizer state of a mapped store to its file (no-op on the heap).
+     */
+    public void force() {
+        if (store != null) store.force();
+    }
+
+    // Get and set methods
+    public int [] getLayerSizes() { return layerSizes.clone(); }
+    public int getNumWeights() { return weights.capacity(); }
+    public boolean isOffHeap() { return store != null; }
+    public double getLearningRate() { return learningRate; }
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+        if (optimizer != null) optimizer.setLearningRate(learningRate);
+    }
+
+    /**
+     * Select the weight update rule.
+     * Off-heap, the optimizer state is kept in the store (and resumed from a mapped file).
+     * @param type The optimizer type (null = classic momentum).
+     */
+    public void setOptimizer(Optimizer.Type type) {
+        int numWeights = weights.capacity();
+        if (type == null) {
+            optimizer = null;
+        } else if (store == null) {
+            optimizer = new Optimizer(type, numWeights, learningRate, momentumTerm);
+        } else {
+            optimizer = new Optimizer(type, store.doubles(2 * numWeights * WeightFile.DOUBLE, numWeights),
+                    store.doubles(3 * numWeights * WeightFile.DOUBLE, numWeights), learningRate, momentumTerm);
+        }
+    }
+}
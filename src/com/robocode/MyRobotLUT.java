@@ -6,7 +6,6 @@ import robocode.*;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Random;
 
 public class MyRobotLUT extends AdvancedRobot {
     /**
@@ -16,6 +15,7 @@ public class MyRobotLUT extends AdvancedRobot {
     //final double alpha = 0.0;   // No learning
     final double gamma = 0.9;   // Discount factor
     final double epsilon = 0.1; // Exploration factor (0 if always greedy)
+    static long rngSeed = 0;    // Seed of the random streams for reproducible battles (0 = seeded from the clock)
 
     /**
      * {State, action} definitions
@@ -53,6 +53,37 @@ public class MyRobotLUT extends AdvancedRobot {
             stateAction.values().length,
             randomQ);
 
+    /**
+     * Double Q-learning: a second LUT with alternating roles (see DoubleQ), saved to luttest.txt.b
+     */
+    static boolean doubleQ = false;
+    static public LUT lutB = new LUT(
+            stateXPos.values().length,
+            stateYPos.values().length,
+            stateDist.values().length,
+            stateEnergy.values().length,
+            stateAction.values().length,
+            randomQ);
+    static DoubleQ dq = new DoubleQ(lut, lutB, stateAction.values().length);
+
+    /**
+     * Eligibility traces: lambda = 0 is one-step TD, lambda > 0 propagates the TD error back to the
+     * recently visited entries (Watkins Q(lambda) when off policy, SARSA(lambda) when on policy).
+     * Only the last traceCapacity entries with a trace above traceCutoff are kept.
+     */
+    static double lambda = 0.0;
+    static int traceCapacity = 64;
+    static double traceCutoff = 0.01;
+    static EligibilityTraces traces = new EligibilityTraces(traceCapacity, traceCutoff);
+    boolean explored = false;   // true if the current action is exploratory (non-greedy)
+
+    /**
+     * N-step returns: the entry of nStep steps ago is updated with the discounted reward sum of nStep steps
+     * and bootstrapped with gamma^nStep (1 = one-step TD). Eligibility traces are not used when nStep > 1.
+     */
+    static int nStep = 1;
+    static NStepBuffer nStepBuffer = null;
+
     static int numRounds = 0;
     static int numWins = 0;
     static boolean startBattle = true;
@@ -104,16 +135,34 @@ public class MyRobotLUT extends AdvancedRobot {
          * Only load the LUT file at start of battle (instead of start of each round).
          */
         if (startBattle) {
+            if (rngSeed != 0) Rng.setSeed(rngSeed);
             try {
                 lut.load(getDataFile("luttest.txt"));
             } catch (IOException e) {
                 e.printStackTrace();
             }
+
+            if (doubleQ) {
+                try {
+                    lutB.load(DoubleQ.secondFile(getDataFile("luttest.txt")));
+                } catch (IOException e) {
+                    // No second LUT yet, start from the same values as the first one
+                    try {
+                        lutB.load(getDataFile("luttest.txt"));
+                    } catch (IOException e2) {
+                        e2.printStackTrace();
+                    }
+                }
+            }
         }
 
         lut.save(getDataFile("luttest.txt"));
+        if (doubleQ) lutB.save(DoubleQ.secondFile(getDataFile("luttest.txt")));
         startBattle = false;    // startBattle is static so that will not load LUT again in next round
 
+        if (nStepBuffer == null || nStepBuffer.getSteps() != nStep) nStepBuffer = new NStepBuffer(nStep, gamma);
+        nStepBuffer.clear();    // Returns do not span rounds
+
         // Color my robot
         setColors(Color.blue, Color.red, Color.orange, Color.black, Color.green);
 
@@ -126,7 +175,8 @@ public class MyRobotLUT extends AdvancedRobot {
                     break;
                 }
                 case action: {
-                    if (Math.random() <= epsilon) {
+                    explored = Rng.nextDouble() <= epsilon;
+                    if (explored) {
                         currStateAction = exploreAction();
                     }
                     else
@@ -173,14 +223,7 @@ public class MyRobotLUT extends AdvancedRobot {
                     }
 
                     // Compute Q based on current rewards and update previous Q
-                    double[] x = new double[]{
-                            prevStateXPos.ordinal(),
-                            prevStateYPos.ordinal(),
-                            prevStateDist.ordinal(),
-                            prevStateEnergy.ordinal(),
-                            prevStateAction.ordinal()};
-
-                    lut.train(x, learnQ(currReward));
+                    updatePrevQ();
                     runMode = mode.scan;    // Switch to scan mode
                     break;
                 }
@@ -207,7 +250,7 @@ public class MyRobotLUT extends AdvancedRobot {
      * @return random action.
      */
     public stateAction exploreAction() {
-        int x = new Random().nextInt(stateAction.values().length);
+        int x = Rng.nextInt(stateAction.values().length);
         return stateAction.values()[x];
     }
 
@@ -228,8 +271,8 @@ public class MyRobotLUT extends AdvancedRobot {
         // Locate the greedy action giving the maximum Q value
         for (int i = 0; i < stateAction.values().length; i++) {
             x[4] = i;
-            if (lut.outputFor(x) >= maxQ) {
-                maxQ = lut.outputFor(x);
+            if (policy().outputFor(x) >= maxQ) {
+                maxQ = policy().outputFor(x);
                 maxQAction = i;
             }
         }
@@ -254,8 +297,8 @@ public class MyRobotLUT extends AdvancedRobot {
         // Locate the greedy action giving the maximum Q value
         for (int i = 0; i < stateAction.values().length; i++) {
             x[4] = i;
-            if (lut.outputFor(x) >= maxQ) {
-                maxQ = lut.outputFor(x);
+            if (policy().outputFor(x) >= maxQ) {
+                maxQ = policy().outputFor(x);
                 maxQAction = i;
             }
         }
@@ -263,19 +306,20 @@ public class MyRobotLUT extends AdvancedRobot {
         return stateAction.values()[maxQAction];
     }
 
+    /**
+     * Return the approximator of the greedy policy.
+     * @return the average of both LUTs in double Q mode, else the LUT.
+     */
+    CommonInterface policy() {
+        return doubleQ ? dq : lut;
+    }
+
     /**
      * return the new Q value based on TD learning.
      * @param reward reward value.
      * @return learned Q value.
      */
     public double learnQ(double reward) {
-        stateAction bestAction = greedyAction(
-                currStateXPos.ordinal(),
-                currStateYPos.ordinal(),
-                currStateDist.ordinal(),
-                currStateEnergy.ordinal()
-        );
-
         double[] prevSA = new double[]{
                 prevStateXPos.ordinal(),
                 prevStateYPos.ordinal(),
@@ -284,6 +328,24 @@ public class MyRobotLUT extends AdvancedRobot {
                 prevStateAction.ordinal()
         };
 
+        return learnQ(prevSA, reward, gamma);
+    }
+
+    /**
+     * return the new Q value of a {state, action} entry based on (n-step) TD learning from the current state.
+     * @param prevSA the {state, action} entry to update.
+     * @param reward reward value (discounted reward sum of n steps).
+     * @param discount discount of the current state's Q value (gamma^n).
+     * @return learned Q value.
+     */
+    public double learnQ(double[] prevSA, double reward, double discount) {
+        stateAction bestAction = greedyAction(
+                currStateXPos.ordinal(),
+                currStateYPos.ordinal(),
+                currStateDist.ordinal(),
+                currStateEnergy.ordinal()
+        );
+
         double[] currSA;    // Current state can be either on or off policy
 
         if (runPolicy == policy.off) {
@@ -304,10 +366,80 @@ public class MyRobotLUT extends AdvancedRobot {
             };
         }
 
-        double prevQ = lut.outputFor(prevSA);
-        double currQ = lut.outputFor(currSA);
+        double prevQ, currQ;
+        if (doubleQ) {
+            // The online LUT selects the best action, the other LUT evaluates it
+            prevQ = dq.online().outputFor(prevSA);
+            currQ = runPolicy == policy.off ? dq.maxQ(currSA) : dq.evaluator().outputFor(currSA);
+        } else {
+            prevQ = lut.outputFor(prevSA);
+            currQ = lut.outputFor(currSA);
+        }
+
+        return prevQ + alpha * (reward + discount * currQ - prevQ);
+    }
+
+    /**
+     * Update Q value of the previous state using learned Q value.
+     * With eligibility traces, the same TD error is applied to all active entries weighted by their traces.
+     */
+    public void updatePrevQ() {
+        double[] x = new double[]{
+                prevStateXPos.ordinal(),
+                prevStateYPos.ordinal(),
+                prevStateDist.ordinal(),
+                prevStateEnergy.ordinal(),
+                prevStateAction.ordinal()};
+
+        if (nStep > 1) {
+            // The entry of nStep steps ago is updated once its nStep rewards are known
+            if (nStepBuffer.add(x, prevStateAction.ordinal(), currReward)) {
+                updateNStepQ();
+            }
+            return;
+        }
+
+        double newQ = learnQ(currReward);
+        LUT target = doubleQ ? (LUT) dq.online() : lut;   // LUT being updated
 
-        return prevQ + alpha * (reward + gamma * currQ - prevQ);
+        if (lambda > 0) {
+            // alpha * TD error = newQ - prevQ
+            traces.visit(target.indexFor(x));
+            traces.update(target, newQ - target.outputFor(x));
+
+            // Off policy traces are cut after an exploratory action
+            if (runPolicy == policy.off && explored)
+                traces.clear();
+            else
+                traces.decay(gamma * lambda);
+        }
+
+        // Previous entry (trace = 1) gets the learned Q value and its access count
+        target.train(x, newQ);
+        if (doubleQ) dq.swap();
+    }
+
+    /**
+     * Update the Q value of the entry emitted by nStepBuffer with its n-step return.
+     */
+    void updateNStepQ() {
+        double[] s = nStepBuffer.getOutState();
+        double[] x = new double[]{s[0], s[1], s[2], s[3], nStepBuffer.getOutAction()};
+        double newQ = learnQ(x, nStepBuffer.getOutReturn(), Math.pow(gamma, nStepBuffer.getOutSteps()));
+
+        LUT target = doubleQ ? (LUT) dq.online() : lut;
+        target.train(x, newQ);
+        if (doubleQ) dq.swap();
+    }
+
+    /**
+     * At the end of a round, update the pending entries of nStepBuffer with their truncated returns.
+     */
+    void flushNStep() {
+        if (nStepBuffer == null) return;
+        while (nStepBuffer.flush()) {
+            updateNStepQ();
+        }
     }
 
     /**
@@ -459,14 +591,9 @@ public class MyRobotLUT extends AdvancedRobot {
         winRate[getRoundNum() / 100]++;
 
         // Update previous Q before the round ends
-        double[] x = new double[]{
-                prevStateXPos.ordinal(),
-                prevStateYPos.ordinal(),
-                prevStateDist.ordinal(),
-                prevStateEnergy.ordinal(),
-                prevStateAction.ordinal()};
-
-        lut.train(x, learnQ(currReward));
+        updatePrevQ();
+        flushNStep();
+        traces.clear();
     }
 
     // Lose the round --> bad terminal reward
@@ -474,14 +601,9 @@ public class MyRobotLUT extends AdvancedRobot {
         currReward = badTermReward;
 
         // Update previous Q before the round ends
-        double[] x = new double[]{
-                prevStateXPos.ordinal(),
-                prevStateYPos.ordinal(),
-                prevStateDist.ordinal(),
-                prevStateEnergy.ordinal(),
-                prevStateAction.ordinal()};
-
-        lut.train(x, learnQ(currReward));
+        updatePrevQ();
+        flushNStep();
+        traces.clear();
     }
 
     // Round ended --> increase number of rounds for winning statistics calculation
@@ -495,6 +617,7 @@ public class MyRobotLUT extends AdvancedRobot {
 
         // At end of battle, save LUT to file
         lut.save(getDataFile("luttest.txt"));
+        if (doubleQ) lutB.save(DoubleQ.secondFile(getDataFile("luttest.txt")));
         saveStats(winRate);
     }
 }
\ No newline at end of file
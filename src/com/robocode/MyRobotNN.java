@@ -3,10 +3,9 @@ package com.robocode;
 import robocode.*;
 
 import java.awt.*;
-import java.io.File;
-import java.io.IOException;
-import java.io.PrintStream;
-import java.util.Random;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Robot using NN to approximate the Q-learning function instead of LUT
@@ -19,6 +18,7 @@ public class MyRobotNN extends AdvancedRobot {
     //final double alpha = 0.0;   // No learning
     final double gamma = 0.1;   // Discount factor
     final double epsilon = 0.1; // Exploration factor (0 if always greedy)
+    static long rngSeed = 0;    // Seed of the random streams for reproducible battles (0 = seeded from the clock)
 
     /**
      * {State, action} definitions
@@ -40,14 +40,68 @@ public class MyRobotNN extends AdvancedRobot {
     static int numHidden = 5;
     static double learningRate = 0.2;
     static double momentumTerm = 0.5;
-    static public NeuralNet nn = new NeuralNet(
-             NeuralNet.ActFnType.BIPOLAR, numInputs, numHidden, learningRate, momentumTerm, -1, 1);
+    static boolean oneHotAction = true; // true = the action input x[4] is one-hot encoded (see NeuralNet)
+    static public NeuralNet nn = newNet();
+    static boolean loadWeights = false; // true = start battle from the weights saved by a previous battle
+    static String weightFileName = "NN_weights.dat";
+    // Opt-in: weights, old weights and optimizer state in a direct buffer that the GC does not scan (see
+    // NeuralNet.moveOffHeap()). Off by default, since the forward and backward passes are faster on the heap;
+    // the weight file stays the persistence of the weights and the normalizer either way
+    static boolean offHeapWeights = false;
+
+    // Online input standardization (see InputNormalizer), frozen at the start of the first round after
+    // normalizerFreezeSamples training samples; restored from the weight file when weights are loaded
+    static boolean normalizeInputs = true;
+    static long normalizerFreezeSamples = 20000;
+
+    // Frozen policy for competitive battles: greedy actions from the int8 quantized net, no learning
+    static boolean quantizedPolicy = false;
+    static QuantizedNet qnn = null;
+    static final double[][] inputRange = {{8.0, 6.0, 10.0, 10.0, 4.0}};   // Max of each input for calibration
+
+    /**
+     * Cache of the Q values of all actions of recently visited states, invalidated by the NN weight version
+     */
+    static int policyCacheSize = 4096;
+    static PolicyCache policyCache = new PolicyCache(policyCacheSize, stateAction.values().length);
+    double[] qValues = new double[stateAction.values().length];
+
+    // Frozen policy for competitive battles: greedy actions from a decision table compiled by DecisionTable.main()
+    static boolean decisionTablePolicy = false;
+    static String decisionTableFileName = "NN_policy.tbl";
+    static DecisionTable decisionTable = null;
+
+    /**
+     * Double Q-learning: a second NN with alternating roles (see DoubleQ), saved to weightFileName + ".b"
+     */
+    static boolean doubleQ = false;
+    static public NeuralNet nnB = newNet();
+    static DoubleQ dq = new DoubleQ(nn, nnB, stateAction.values().length);
 
     static int numRounds = 0;
     static int numWins = 0;
 
-    // Win rate counter: winRate[0] = # of wins in rounds 1-100, winRate[1] = # of wins in rounds 101-200, etc
-    static int[] winRate = new int[10000];
+    /**
+     * Per-round statistics streamed to Stats.csv every statsFlushInterval rounds.
+     * Only the last statsCapacity rounds are kept in memory; win rate etc. are reported over the last statsWindow rounds.
+     */
+    static int statsCapacity = 1000;
+    static int statsWindow = 100;
+    static int statsFlushInterval = 100;
+    static RoundStats stats = new RoundStats(statsCapacity, statsWindow);
+
+    // Current round counters
+    boolean roundWon = false;
+    int roundShots = 0;
+    int roundHits = 0;
+    long roundTrainNanos = 0;
+
+    /**
+     * Latency of the decide/learn/save phases of the robot loop, dumped to Latency.txt at end of battle.
+     * With jfrEvents, a RobotPhaseEvent is also committed per phase when a flight recording is running.
+     */
+    static boolean jfrEvents = true;
+    static TickProfiler profiler = new TickProfiler(jfrEvents);
 
     /**
      * Create replay memory to train more than 1 sample at a time step
@@ -55,6 +109,41 @@ public class MyRobotNN extends AdvancedRobot {
     static int memSize = 10;
     static ReplayMemory<Experience> replayMemory = new ReplayMemory<>(memSize);
 
+    /**
+     * Training time budget per turn: replay samples that do not fit in trainFraction of the turn
+     * are deferred to later turns, where they are trained before the samples of that turn.
+     * The budget shrinks when robocode skips a turn of the robot.
+     */
+    static long turnBudgetNanos = 1000000;  // Time of a turn, should match the robocode CPU constant
+    static double trainFraction = 0.5;
+    static int maxDeferred = 3 * memSize;   // Max # of samples carried over, the oldest are dropped
+    static TrainBudget budget = new TrainBudget(turnBudgetNanos, trainFraction, 1, maxDeferred);
+    static ArrayDeque<Experience> pendingSamples = new ArrayDeque<>();  // Deferred samples, oldest first
+
+    /**
+     * Replay persistence across battles: experiences are appended to memory-mapped segment files in
+     * the data directory, and the battle is warm-started from all retained experiences (see openReplayStore()).
+     * The retention of maxReplaySegments x replaySegmentCapacity experiences bounds the warm start
+     * as well as the data of OfflineTrain.
+     */
+    static boolean persistReplay = false;
+    static String replayDirName = "replay";
+    static int replaySegmentCapacity = 4096;    // # of experiences per segment file
+    static int maxReplaySegments = 16;          // Retention cap, the oldest segment is then reused
+    static ReplayStore replayStore = null;
+
+    /**
+     * N-step returns: experiences enter the replay memory with the discounted reward sum of nStep steps
+     * and are bootstrapped with gamma^nStep (1 = one-step TD)
+     */
+    static int nStep = 1;
+    static NStepBuffer nStepBuffer = null;
+    double[] stateValues = new double[4];
+
+    // Replay mini-batch: {prev state, prev action} of each sample and its TD target
+    static double[][] batchInputs = new double[memSize + maxDeferred][numInputs];
+    static double[] batchTargets = new double[memSize + maxDeferred];
+
     /**
      * Current and previous states (initial value can be any)
      */
@@ -76,9 +165,6 @@ public class MyRobotNN extends AdvancedRobot {
     public double currReward = 0.0;
     public double accumReward = 0.0;
 
-    // rewardRate[0] = accum reward in round 1, rewardRate[1] = accum reward in round 2, etc
-    static double[] rewardRate = new double[10000];
-
     /**
      * State values (non-quantized) obtained from onScannedRobot()
      */
@@ -98,9 +184,68 @@ public class MyRobotNN extends AdvancedRobot {
          */
 
         if (getRoundNum() == 0) {
+            if (rngSeed != 0) Rng.setSeed(rngSeed);
+            stats = new RoundStats(statsCapacity, statsWindow);
+            profiler = new TickProfiler(jfrEvents);
+            budget = new TrainBudget(turnBudgetNanos, trainFraction, 1, maxDeferred);
+            pendingSamples.clear();
+            if (offHeapWeights) moveOffHeap();
             nn.initializeWeights();
             nn.zeroWeights();
+            nn.setNormalizer(normalizeInputs ? new InputNormalizer(nn.getNumDenseInputs()) : null);
+
+            if (loadWeights) {
+                try {
+                    nn.load(getDataFile(weightFileName));
+                } catch (IOException e) {
+                    // Fall back to random weights if the file is missing or does not match the NN structure
+                    e.printStackTrace();
+                    nn.initializeWeights();
+                }
+            }
+
+            if (doubleQ) {
+                // Start from the same weights as the first NN unless a second NN was saved
+                nnB.zeroWeights();
+                nnB.loadWeights(nn);
+                nnB.setNormalizer(nn.getNormalizer() == null ? null : nn.getNormalizer().copy());
+                if (loadWeights && DoubleQ.secondFile(getDataFile(weightFileName)).exists()) {
+                    try {
+                        nnB.load(DoubleQ.secondFile(getDataFile(weightFileName)));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        nnB.loadWeights(nn);
+                        nnB.setNormalizer(nn.getNormalizer() == null ? null : nn.getNormalizer().copy());
+                    }
+                }
+            }
+
+            if (quantizedPolicy) {
+                qnn = new QuantizedNet(nn, inputRange);
+            }
+            if (decisionTablePolicy) {
+                try {
+                    decisionTable = DecisionTable.load(getDataFile(decisionTableFileName),
+                            stateAction.values().length);
+                } catch (IOException e) {
+                    // Fall back to the NN policy
+                    e.printStackTrace();
+                    decisionTable = null;
+                }
+            }
+            policyCache.clear();
+
+            if (persistReplay) {
+                openReplayStore();
+            }
+
+            nStepBuffer = new NStepBuffer(nStep, gamma);
         }
+        nStepBuffer.clear();    // Returns do not span rounds
+        freezeNormalizer(nn);
+        if (doubleQ) freezeNormalizer(nnB);
+
+        profiler.setRound(getRoundNum());
 
         // Color my robot
         setColors(Color.blue, Color.red, Color.orange, Color.black, Color.green);
@@ -115,11 +260,13 @@ public class MyRobotNN extends AdvancedRobot {
                 }
                 case action: {
                     // Explore or exploit depending on epsilon
-                    if (Math.random() <= epsilon) {
+                    long decideStart = profiler.begin();
+                    if (Rng.nextDouble() <= epsilon) {
                         currStateAction = exploreAction();
                     }
                     else
                         currStateAction = greedyAction(xPos, yPos, dist, energy);
+                    profiler.end(TickProfiler.Phase.DECIDE, decideStart);
 
                     /**
                      * These are the macro actions performed by the robot.
@@ -154,6 +301,7 @@ public class MyRobotNN extends AdvancedRobot {
                             double turn = getHeading() - getGunHeading() + bearing;
                             turnGunRight(normalizeBearing(turn)); // Turn gun towards enemy
                             fire(3);
+                            roundShots++;
                             break;
                         }
                         default: {
@@ -189,7 +337,7 @@ public class MyRobotNN extends AdvancedRobot {
      * @return random action.
      */
     public stateAction exploreAction() {
-        int x = new Random().nextInt(stateAction.values().length);
+        int x = Rng.nextInt(stateAction.values().length);
         return stateAction.values()[x];
     }
 
@@ -202,16 +350,51 @@ public class MyRobotNN extends AdvancedRobot {
      * @return action with max Q value.
      */
     public stateAction greedyAction(double xPos, double yPos, double dist, double energy) {
-        // Quantize state values to LUT indices
-        int maxQAction = 0;
-        double maxQ = 0.0;
+        // Quantize state values to NN inputs
         double[] x = new double[]{quantPos(xPos), quantPos(yPos), quantDist(dist), quantEnergy(energy), 0};
+        return greedyAction(x);
+    }
+
+    /**
+     * Return the greedy action with max Q value.
+     * @param s state with quantized values (e.g. from replay memory).
+     * @return action with max Q value.
+     */
+    public stateAction greedyAction(State s) {
+        double[] x = new double[]{s.getXPos(), s.getYPos(), s.getDist(), s.getEnergy(), 0};
+        return greedyAction(x);
+    }
+
+    /**
+     * Return the greedy action with max Q value.
+     * @param x quantized state values, x[4] is overwritten by each action.
+     * @return action with max Q value.
+     */
+    stateAction greedyAction(double[] x) {
+        if (decisionTable != null) {
+            return stateAction.values()[decisionTable.actionFor(x)];
+        }
+
+        int maxQAction = 0;
+        double maxQ = Double.NEGATIVE_INFINITY;
+
+        // Q values of all actions from the cache, or from the policy net if not cached for the current weights
+        long key = PolicyCache.key(x);
+        if (!policyCache.lookup(key, policyVersion(), qValues)) {
+            // The policy only evaluates Q values, so any approximator fits, including the inference-only QuantizedNet
+            ToDoubleFunction<double[]> policyNet = qnn != null ? qnn::outputFor :
+                    doubleQ ? dq::outputFor : nn::outputFor;
+            for (int i = 0; i < stateAction.values().length; i++) {
+                x[4] = i;
+                qValues[i] = policyNet.applyAsDouble(x);
+            }
+            policyCache.put(key, policyVersion(), qValues);
+        }
 
         // Locate the greedy action giving the maximum Q value
         for (int i = 0; i < stateAction.values().length; i++) {
-            x[4] = i;
-            if (nn.outputFor(x) >= maxQ) {
-                maxQ = nn.outputFor(x);
+            if (qValues[i] >= maxQ) {
+                maxQ = qValues[i];
                 maxQAction = i;
             }
         }
@@ -219,18 +402,32 @@ public class MyRobotNN extends AdvancedRobot {
         return stateAction.values()[maxQAction];
     }
 
+    /**
+     * Return the weight version of the policy, which changes whenever any of its NNs is trained.
+     * @return the sum of the weight versions.
+     */
+    long policyVersion() {
+        return doubleQ ? nn.getVersion() + nnB.getVersion() : nn.getVersion();
+    }
+
     /**
      * return the new Q value based on TD learning.
      * @param reward reward value.
      * @return learned Q value.
      */
     public double learnQ(State prevState, MyRobotNN.stateAction prevAction, double reward, State currState) {
-        stateAction bestAction = greedyAction(
-                currState.getXPos(),
-                currState.getYPos(),
-                currState.getDist(),
-                currState.getEnergy()
-        );
+        return learnQ(prevState, prevAction, reward, currState, 1);
+    }
+
+    /**
+     * return the new Q value based on n-step TD learning.
+     * @param reward discounted reward sum of the n steps.
+     * @param steps number of steps n between the previous and the current state.
+     * @return learned Q value.
+     */
+    public double learnQ(State prevState, MyRobotNN.stateAction prevAction, double reward, State currState, int steps) {
+        // In double Q mode the best action is selected by the online NN in dq.maxQ()
+        stateAction bestAction = doubleQ ? stateAction.a1 : greedyAction(currState);
 
         double[] prevSA = new double[]{
                 prevState.getXPos(),
@@ -260,40 +457,207 @@ public class MyRobotNN extends AdvancedRobot {
             };
         }
 
-        double prevQ = nn.outputFor(prevSA);
-        double currQ = nn.outputFor(currSA);
+        double prevQ, currQ;
+        if (doubleQ) {
+            // The online NN selects the best action, the other NN evaluates it
+            prevQ = dq.online().outputFor(prevSA);
+            currQ = runPolicy == policy.off ? dq.maxQ(currSA) : dq.evaluator().outputFor(currSA);
+        } else {
+            prevQ = nn.outputFor(prevSA);
+            currQ = nn.outputFor(currSA);
+        }
 
-        return prevQ + alpha * (reward + gamma * currQ - prevQ);
+        double discount = steps == 1 ? gamma : Math.pow(gamma, steps);
+        return prevQ + alpha * (reward + discount * currQ - prevQ);
     }
 
     /**
      * Update Q value of the previous state using learned Q value.
      */
     public void updatePrevQ() {
-        double[] x = new double[]{
-                prevState.getXPos(),
-                prevState.getYPos(),
-                prevState.getDist(),
-                prevState.getEnergy(),
-                prevStateAction.ordinal()};
+        if (qnn != null || decisionTable != null) return;   // Frozen policy, no learning
+
+        budget.startTick();
+
+        if (nStep > 1) {
+            // The experience of nStep steps ago is complete once its nStep rewards are known
+            stateValues[0] = prevState.getXPos();
+            stateValues[1] = prevState.getYPos();
+            stateValues[2] = prevState.getDist();
+            stateValues[3] = prevState.getEnergy();
+            if (nStepBuffer.add(stateValues, prevStateAction.ordinal(), currReward)) {
+                addExperience(nStepExperience());
+            }
+        } else {
+            // States are copied since prevState and currState are updated in place on every scan
+            addExperience(new Experience(new State(prevState), prevStateAction, currReward, new State(currState)));
+        }
+
+        long startTime = profiler.begin();
+        replayTrain();
+        roundTrainNanos += profiler.end(TickProfiler.Phase.LEARN, startTime);
+    }
+
+    /**
+     * Add an experience to the replay memory and the replay store.
+     * @param exp The experience.
+     */
+    void addExperience(Experience exp) {
+        replayMemory.add(exp);
+        if (replayStore != null) {
+            try {
+                replayStore.append(exp);
+            } catch (IOException e) {
+                e.printStackTrace();
+                replayStore = null;     // Keep learning without persistence
+            }
+        }
+    }
+
+    /**
+     * Return the n-step experience emitted by nStepBuffer, ending in the current state.
+     * @return the experience.
+     */
+    Experience nStepExperience() {
+        double[] s = nStepBuffer.getOutState();
+        return new Experience(new State(s[0], s[1], s[2], s[3]), stateAction.values()[nStepBuffer.getOutAction()],
+                nStepBuffer.getOutReturn(), new State(currState), nStepBuffer.getOutSteps());
+    }
+
+    /**
+     * At the end of a round, add the pending transitions of nStepBuffer with their truncated returns.
+     */
+    void flushNStep() {
+        if (nStepBuffer == null || qnn != null || decisionTable != null) return;
+        while (nStepBuffer.flush()) {
+            addExperience(nStepExperience());
+        }
+    }
+
+    /**
+     * Create a NN with the structure of the robot's NN, e.g. to load its weight file offline.
+     * @return the NN (weights not initialized).
+     */
+    static NeuralNet newNet() {
+        return new NeuralNet(NeuralNet.ActFnType.BIPOLAR, numInputs, oneHotAction ? stateAction.values().length : 0,
+                numHidden, learningRate, momentumTerm, -1, 1);
+    }
+
+    /**
+     * Move the weights of the NNs off-heap, once since the NNs are static.
+     */
+    static void moveOffHeap() {
+        try {
+            if (!nn.isOffHeap()) nn.moveOffHeap(null);
+            if (doubleQ && !nnB.isOffHeap()) nnB.moveOffHeap(null);
+        } catch (IOException e) {
+            // Keep the weights on the heap
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Freeze the input normalizer of a NN once it has seen normalizerFreezeSamples samples, so that
+     * the inputs no longer shift under the learned weights.
+     * @param net The NN.
+     */
+    static void freezeNormalizer(NeuralNet net) {
+        InputNormalizer normalizer = net.getNormalizer();
+        if (normalizer != null && !normalizer.isFrozen() && normalizer.getCount() >= normalizerFreezeSamples) {
+            normalizer.freeze();
+        }
+    }
 
-        replayMemory.add(new Experience(prevState, prevStateAction, currReward, currState));
-        replayTrain(x);
+    /**
+     * Train NN using multiple experiences saved in replayMemory.
+     * The samples deferred by earlier turns are assembled first (oldest first), then the memSize
+     * most recent samples from the most recent one backwards; the samples that do not fit in the
+     * training budget of the turn are deferred to later turns (at most maxDeferred, the oldest are dropped).
+     * The assembled samples are trained as one mini-batch.
+     */
+    public void replayTrain() {
+        long startTime = System.nanoTime();
+        Object[] vector = replayMemory.sample(Math.min(replayMemory.sizeOf(), memSize));
+        int planned = budget.plan(vector.length);
+        for (int i = vector.length - 1; i >= 0; i--) {
+            pendingSamples.addLast((Experience) vector[i]);
+        }
+
+        int n = 0;
+        while (!pendingSamples.isEmpty() && budget.hasTime(n, startTime)) {
+            n = assembleBatch(pendingSamples.removeFirst(), n);
+        }
+        while (pendingSamples.size() > maxDeferred) {
+            pendingSamples.removeFirst();
+        }
+        trainBatch(n);
+        budget.trained(planned, n, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Train the assembled mini-batch on the NN, or on the online NN of double Q-learning.
+     * @param n # of samples in the batch.
+     */
+    void trainBatch(int n) {
+        if (doubleQ) {
+            ((NeuralNet) dq.online()).trainBatch(batchInputs, batchTargets, n);
+            dq.swap();
+        } else {
+            nn.trainBatch(batchInputs, batchTargets, n);
+        }
     }
 
     /**
-     * Train NN using multiple vectors saved in replayMemory
+     * Add a sample to the replay mini-batch: its own {prev state, prev action} as input and
+     * its TD target computed with the current weights (before the batch is trained).
+     * @param exp The experience.
+     * @param n # of samples already in the batch.
+     * @return # of samples in the batch.
      */
-    public void replayTrain(double[] x) {
-        int trainSize = Math.min(replayMemory.sizeOf(), memSize);
-        Object[] vector = replayMemory.sample(trainSize);
+    int assembleBatch(Experience exp, int n) {
+        double[] x = batchInputs[n];
+        x[0] = exp.prevState.getXPos();
+        x[1] = exp.prevState.getYPos();
+        x[2] = exp.prevState.getDist();
+        x[3] = exp.prevState.getEnergy();
+        x[4] = exp.prevAction.ordinal();
+        batchTargets[n] = learnQ(exp.prevState, exp.prevAction, exp.currReward, exp.currState, exp.steps);
+        return n + 1;
+    }
 
-        for (Object e: vector) {
-            Experience exp = (Experience) e;
-            nn.train(x, learnQ(exp.prevState,
-                    exp.prevAction,
-                    exp.currReward,
-                    exp.currState));
+    /**
+     * Open the replay store in the data directory and warm-start from the experiences of previous battles.
+     * The warm start matches the retention of the store: a learning NN that does not continue from saved
+     * weights is trained one pass over all retained experiences, oldest first, in mini-batches. Saved
+     * weights have already learned them. The replay memory, which only replays its memSize most recent
+     * samples, is then filled with the most recent experiences.
+     */
+    public void openReplayStore() {
+        try {
+            replayStore = ReplayStore.open(new File(getDataDirectory(), replayDirName), "replay_",
+                    replaySegmentCapacity, maxReplaySegments);
+            int size = replayStore.size();
+            int trained = 0;
+            if (!loadWeights && qnn == null && decisionTable == null) {
+                int n = 0;
+                for (int i = 0; i < size; i++) {
+                    n = assembleBatch(replayStore.get(i), n);
+                    if (n == batchTargets.length || i == size - 1) {
+                        trainBatch(n);
+                        n = 0;
+                    }
+                }
+                trained = size;
+            }
+            for (int i = Math.max(0, size - memSize); i < size; i++) {
+                replayMemory.add(replayStore.get(i));
+            }
+            System.out.println("Replay warm start: " + trained + "/" + size + " experiences trained, " +
+                    Math.min(size, memSize) + " in replay memory");
+        } catch (IOException | SecurityException e) {
+            // Mapping files may not be permitted by the robocode security manager
+            e.printStackTrace();
+            replayStore = null;
         }
     }
 
@@ -330,7 +694,7 @@ public class MyRobotNN extends AdvancedRobot {
     public double quantPos(double pos) {
         final int factor = 100; // quantize factor
 
-        return pos / factor;
+        return Math.round(pos) / (double) factor;
     }
 
     /**
@@ -342,33 +706,47 @@ public class MyRobotNN extends AdvancedRobot {
     public double quantDist(double dist) {
         final int factor = 100; // quantize factor
 
-        return dist / factor;
+        return Math.round(dist) / (double) factor;
     }
 
     /**
      * Quantize self energy to state value for NN input
-     * Energy : {0..100} -> {0.0, 0.1, 0.2, ..., 9.99, 10.00}
+     * Energy : {0..100} -> {0.00, 0.01, 0.02, ..., 9.99, 10.00}
      * @param energy energy of my robot obtained from onScannedRobot() event.
      * @return quantized energy value.
      */
     public double quantEnergy(double energy) {
         final int factor = 10; // quantize factor
-        return energy / factor;
+        return Math.round(energy * 10) / (10.0 * factor);
     }
 
     /**
-     * Save winning rate table to log file
-     * @param winArr array of winning count.
+     * Append the round statistics recorded since the last flush to Stats.csv.
+     * The file is created (with header) by the first flush of the battle.
      */
-    public void saveStats(int[] winArr) {
+    public void saveStats() {
+        try {
+            boolean append = stats.getNumFlushed() > 0;
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new RobocodeFileOutputStream(getDataFile("Stats.csv").getPath(), append)));
+            if (!append) RoundStats.writeHeader(out);
+            stats.flush(out);
+            out.close();
+        } catch (IOException exception) {
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Save the win rate summary to log file
+     */
+    public void saveSummary() {
         try {
             File winRatesFile = getDataFile("WinRate.txt");
             PrintStream out = new PrintStream(new RobocodeFileOutputStream(winRatesFile));
-            out.format("Win rate, %d/%d = %d\n", numWins, numRounds, numWins*100/numRounds);
-            out.format("Every 100 Rounds, Wins,\n");
-            for (int i = 0; i < (getRoundNum() + 1) / 100; i++) {
-                out.format("%d, %d,\n", i + 1, winArr[i]);
-            }
+            out.format("Win rate, %d/%d = %d\n", numWins, numRounds, numRounds == 0 ? 0 : numWins*100/numRounds);
+            out.format("Last %d rounds, win rate = %.2f, avg reward = %.3f, hit rate = %.2f\n",
+                    stats.getWindow(), stats.windowWinRate(), stats.windowAvgReward(), stats.windowHitRate());
             out.close();
         } catch (IOException exception) {
             exception.printStackTrace();
@@ -376,17 +754,13 @@ public class MyRobotNN extends AdvancedRobot {
     }
 
     /**
-     * Save accum reward table to log file
-     * @param rewardArr array of winning count.
+     * Save the latency percentiles of the robot loop phases to log file
      */
-    public void saveReward(double[] rewardArr ) {
+    public void saveLatency() {
         try {
-            File rewardFile = getDataFile("Reward.txt");
-            PrintStream out = new PrintStream(new RobocodeFileOutputStream(rewardFile));
-            out.format("Round #, Accum reward,\n");
-            for (int i = 0; i < getRoundNum() + 1; i++) {
-                out.format("%d, %f,\n", i + 1, rewardArr[i]);
-            }
+            PrintStream out = new PrintStream(new RobocodeFileOutputStream(getDataFile("Latency.txt")));
+            profiler.dump(out);
+            out.format("Policy cache, %d hits, %d misses,%n", policyCache.getHits(), policyCache.getMisses());
             out.close();
         } catch (IOException exception) {
             exception.printStackTrace();
@@ -396,6 +770,12 @@ public class MyRobotNN extends AdvancedRobot {
     /**
      * Overridden functions OnXXXX for robocode events
      */
+    // Turn skipped because the robot took too long --> count it and shrink the training budget
+    public void onSkippedTurn(SkippedTurnEvent event) {
+        profiler.skippedTurn();
+        budget.skippedTurn();
+    }
+
     // Update current state based on scanned values
     public void onScannedRobot(ScannedRobotEvent e) {
         xPos = getX();
@@ -427,6 +807,7 @@ public class MyRobotNN extends AdvancedRobot {
 
     // Enemy hit by bullet --> good instant reward
     public void onBulletHit(BulletHitEvent event) {
+        roundHits++;
         currReward = goodInstReward;
         accumReward += currReward;
     }
@@ -449,10 +830,11 @@ public class MyRobotNN extends AdvancedRobot {
         numWins++;
         currReward = goodTermReward;
         accumReward += currReward;
-        winRate[getRoundNum() / 100]++;
+        roundWon = true;
 
         // Update previous Q before the round ends
         updatePrevQ();
+        flushNStep();
     }
 
     // Lose the round --> bad terminal reward
@@ -462,21 +844,39 @@ public class MyRobotNN extends AdvancedRobot {
 
         // Update previous Q before the round ends
         updatePrevQ();
+        flushNStep();
     }
 
     // Round ended --> reset reward stats and increase number of rounds for winning statistics calculation
     public void onRoundEnded(RoundEndedEvent e) {
-        rewardRate[numRounds] = accumReward;
+        stats.record(roundWon, accumReward, roundShots, roundHits, roundTrainNanos);
         accumReward = 0; // reset accum reward for next round
+        roundWon = false;
+        roundShots = 0;
+        roundHits = 0;
+        roundTrainNanos = 0;
         numRounds++;
+
+        // Stream statistics to file and report progress
+        if (numRounds % statsFlushInterval == 0) {
+            long saveStart = profiler.begin();
+            saveStats();
+            profiler.end(TickProfiler.Phase.SAVE, saveStart);
+            System.out.printf("Round %d: win rate (last %d) = %.2f%n", numRounds, stats.getWindow(), stats.windowWinRate());
+        }
     }
 
     // Battle ended --> save NN weights and battle statistics to file
     public void onBattleEnded(BattleEndedEvent e) {
         System.out.println("Win rate = " + numWins + "/" + numRounds);
 
-        nn.save(getDataFile("NN_weights.txt")); // Save NN weights
-        saveStats(winRate);     // Save winning rate
-        saveReward(rewardRate); // Save reward rate
+        long saveStart = profiler.begin();
+        nn.save(getDataFile(weightFileName)); // Save NN weights
+        if (doubleQ) nnB.save(DoubleQ.secondFile(getDataFile(weightFileName)));
+        saveStats();    // Append remaining round statistics
+        saveSummary();  // Save winning rate
+        profiler.end(TickProfiler.Phase.SAVE, saveStart);
+        saveLatency();  // Save phase latencies
+        if (replayStore != null) replayStore.force();   // Flush replay experiences
     }
 }
\ No newline at end of file
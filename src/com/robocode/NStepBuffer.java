@@ -0,0 +1,141 @@
+package com.robocode;
+
+/**
+ * N-step return accumulator between the robot's transition stream and the learner.
+ * The last n transitions {state, action, reward} are kept in a ring of primitive arrays together with
+ * the discounted reward sum of the pending transitions:
+ *   G = r(t) + gamma * r(t+1) + ... + gamma^(k-1) * r(t+k-1)
+ * - add()   : adds gamma^k * r to G; when n transitions are pending, the oldest one is emitted with
+ *             its n-step return G and removed, i.e. G = (G - r(t)) / gamma, so each step is O(1)
+ * - flush() : at the end of a round, emits the pending transitions with their truncated returns
+ * Removing by division amplifies rounding errors by 1 / gamma per step, so G is recomputed from the
+ * ring every recomputeInterval steps (more often for small gamma), which keeps the cost O(1) amortized.
+ * The emitted transition is read with the getOut... methods; its next state is the current state of the
+ * transition that was just added (for flush(), the last state of the round).
+ */
+public class NStepBuffer {
+    private final int n;                // # of steps of the return
+    private final double gamma;         // Discount factor
+    private final double [] gammaPow;   // gamma^k, k = 0..n
+    private final int recomputeInterval;
+
+    // Ring of pending transitions, the oldest at head
+    private final double [] states;     // 4 state values per transition
+    private final int [] actions;
+    private final double [] rewards;
+    private int head = 0;
+    private int count = 0;
+    private double sum = 0.0;           // Discounted reward sum of the pending transitions
+    private int sinceRecompute = 0;     // # of removals since sum was recomputed
+
+    // Emitted transition
+    private final double [] outState = new double[4];
+    private int outAction;
+    private double outReturn;
+    private int outSteps;
+
+    // Constructor
+    public NStepBuffer(int n, double gamma) {
+        this.n = n;
+        this.gamma = gamma;
+        gammaPow = new double[n + 1];
+        gammaPow[0] = 1.0;
+        for (int k = 1; k <= n; k++) {
+            gammaPow[k] = gammaPow[k - 1] * gamma;
+        }
+        // Each removal amplifies the error by 1 / gamma, allow about 6 decimal digits of growth
+        if (gamma <= 0.0) {
+            recomputeInterval = 1;
+        } else if (gamma >= 1.0) {
+            recomputeInterval = 1000;
+        } else {
+            recomputeInterval = Math.max(1, (int) (6 / Math.log10(1 / gamma)));
+        }
+
+        states = new double[4 * n];
+        actions = new int[n];
+        rewards = new double[n];
+    }
+
+    /**
+     * Add a transition.
+     * @param state The state values of the transition {x, y, distance, energy, ...}.
+     * @param action The action taken in the state.
+     * @param reward The reward received after the action.
+     * @return true if an n-step transition is emitted.
+     */
+    public boolean add(double [] state, int action, double reward) {
+        int i = (head + count) % n;
+        System.arraycopy(state, 0, states, 4 * i, 4);
+        actions[i] = action;
+        rewards[i] = reward;
+        sum += gammaPow[count] * reward;
+        count++;
+
+        if (count < n) return false;
+        emit(n);
+        return true;
+    }
+
+    /**
+     * Emit the oldest pending transition with its truncated return, e.g. at the end of a round.
+     * @return true if a transition is emitted, false if none is pending.
+     */
+    public boolean flush() {
+        if (count == 0) return false;
+        emit(count);
+        return true;
+    }
+
+    /**
+     * Drop all pending transitions.
+     */
+    public void clear() {
+        head = 0;
+        count = 0;
+        sum = 0.0;
+        sinceRecompute = 0;
+    }
+
+    /**
+     * Emit the oldest pending transition and remove it.
+     * @param steps # of rewards in its return.
+     */
+    private void emit(int steps) {
+        System.arraycopy(states, 4 * head, outState, 0, 4);
+        outAction = actions[head];
+        outReturn = sum;
+        outSteps = steps;
+
+        double oldest = rewards[head];
+        head = (head + 1) % n;
+        count--;
+
+        if (++sinceRecompute >= recomputeInterval) {
+            recompute();
+        } else {
+            sum = (sum - oldest) / gamma;
+        }
+    }
+
+    /**
+     * Recompute the discounted reward sum of the pending transitions from the ring.
+     */
+    private void recompute() {
+        sum = 0.0;
+        for (int k = 0; k < count; k++) {
+            sum += gammaPow[k] * rewards[(head + k) % n];
+        }
+        sinceRecompute = 0;
+    }
+
+    // Get methods of the emitted transition
+    public double [] getOutState() { return outState; }
+    public int getOutAction() { return outAction; }
+    public double getOutReturn() { return outReturn; }
+    public int getOutSteps() { return outSteps; }
+
+    // Get methods
+    public int size() { return count; }
+    public int getSteps() { return n; }
+}
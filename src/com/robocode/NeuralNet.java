@@ -3,6 +3,10 @@ package com.robocode;
 import robocode.RobocodeFileOutputStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 public class NeuralNet implements NeuralNetInterface {
     public enum ActFnType {
@@ -11,11 +15,19 @@ public class NeuralNet implements NeuralNetInterface {
         CUSTOM
     }
 
+    public enum Precision {
+        DOUBLE,     // NeuralNet
+        FLOAT       // FloatNeuralNet
+    }
+
     /**
      * Parameters of the Neural Net
      */
     private ActFnType actFn;
     private int numInputs;  // Dimension of input vector
+    private int oneHotSize; // # of categories of the last input if it is one-hot encoded (0 = all inputs dense)
+    private int numDense;   // # of dense inputs
+    private int numColumns; // # of input weights of each hidden neuron (excluding bias) = numDense + oneHotSize
     private int numHidden;  // Dimension of hidden layer
     // Number of outputs assume = 1
     private double learningRate;    // The learning rate coefficient
@@ -26,18 +38,17 @@ public class NeuralNet implements NeuralNetInterface {
     /**
      * Data structures of the Neural Net layers
      */
-    // Weights of links between neurons will be modelled using m x n array
-    // 2-dimensional between input and hidden, 1-dimensional between hidden and output
-    double [][] weightsI2H; // Weights from input to hidden layer
-    double [] weightsH2O;   // Weights from hidden to output layer (assume single node output)
-
-    // Old weights for computing delta weights
-    double [][] oldWeightsI2H;
-    double [] oldWeightsH2O;
-
-    // Temp weights for swapping old and new weights
-    double [][] tempWeightsI2H;
-    double [] tempWeightsH2O;
+    // Weights of links between neurons are stored contiguously in one buffer, in the order of the weight file:
+    // input to hidden weights hidden neuron by hidden neuron (bias weight last in each row of rowLength weights),
+    // then hidden to output weights from outputOffset on (bias weight last, assume single node output)
+    // The buffers are heap arrays by default, or off-heap after moveOffHeap() (see OffHeapStore)
+    DoubleBuffer weights;       // All weights
+    DoubleBuffer oldWeights;    // Old weights for computing delta weights
+    double [] heapWeights;      // Backing array of weights on the heap (null = off-heap)
+    double [] heapOldWeights;   // Backing array of oldWeights on the heap (null = off-heap)
+    int rowLength;              // # of weights of a hidden neuron (including bias)
+    int outputOffset;           // Index of the first hidden to output weight
+    OffHeapStore store = null;  // Off-heap storage of the buffers (null = heap)
 
     // Output signals at neurons (before and after activation) modelled using a 1-dimensional array for hidden layer
     // and single value for output layer
@@ -50,6 +61,22 @@ public class NeuralNet implements NeuralNetInterface {
     double [] deltaHidden;
     double deltaOutput = 0;
 
+    // Weight version, incremented whenever the weights change (e.g. to invalidate cached outputs)
+    private long version = 0;
+
+    // Gradients summed over a mini-batch by trainBatch(), indexed like the weights
+    double [] grad;
+
+    // Adaptive weight update rule (null = classic momentum computed from the old weights)
+    // Optimizer state is indexed like the weight file: input to hidden weights first, then hidden to output
+    Optimizer optimizer = null;
+
+    // Online input standardization (null = raw inputs), applied before the input layer
+    InputNormalizer normalizer = null;
+    double [] normalizedInput;      // Preallocated standardized input vector
+    double [] lastInput;            // Input vector of the last forward pass as seen by the input layer
+    int activeColumn = -1;          // Weight column of the one-hot input of the last forward pass (-1 = none)
+
     public NeuralNet(
             ActFnType actFn,
             int numInputs,
@@ -58,8 +85,30 @@ public class NeuralNet implements NeuralNetInterface {
             double momentumTerm,
             double asymA,
             double asymB) {
+        this(actFn, numInputs, 0, numHidden, learningRate, momentumTerm, asymA, asymB);
+    }
+
+    /**
+     * Create a neural net whose last input is a category index {0..oneHotSize-1} (e.g. the action) fed to
+     * the network one-hot encoded: the category has its own weight column, so the forward pass adds that
+     * single column instead of a multiply per input and backpropagation only updates that column.
+     * The input vector keeps its layout, i.e. the last input holds the category index.
+     * @param oneHotSize # of categories of the last input, 0 = all inputs dense.
+     */
+    public NeuralNet(
+            ActFnType actFn,
+            int numInputs,
+            int oneHotSize,
+            int numHidden,
+            double learningRate,
+            double momentumTerm,
+            double asymA,
+            double asymB) {
         this.actFn = actFn;
         this.numInputs = numInputs;
+        this.oneHotSize = oneHotSize;
+        this.numDense = oneHotSize > 0 ? numInputs - 1 : numInputs;
+        this.numColumns = numDense + oneHotSize;
         this.numHidden = numHidden;
         this.learningRate = learningRate;
         this.momentumTerm = momentumTerm;
@@ -67,19 +116,129 @@ public class NeuralNet implements NeuralNetInterface {
         this.asymB = asymB;
 
         // Create the neuron layer data structures (+1 is used to include "bias" weight)
-        weightsI2H = new double[numHidden][numInputs + 1];
-        weightsH2O = new double[numHidden + 1];
-
-        oldWeightsI2H = new double[numHidden][numInputs + 1];
-        oldWeightsH2O = new double[numHidden + 1];
-
-        tempWeightsI2H = new double[numHidden][numInputs + 1];
-        tempWeightsH2O = new double[numHidden + 1];
+        rowLength = numColumns + 1;
+        outputOffset = numHidden * rowLength;
+        weights = DoubleBuffer.wrap(new double[outputOffset + numHidden + 1]);
+        oldWeights = DoubleBuffer.wrap(new double[weights.capacity()]);
+        heapWeights = weights.array();
+        heapOldWeights = oldWeights.array();
 
         inducedLocalHidden = new double[numHidden];
         activatedHidden = new double[numHidden];
 
         deltaHidden = new double[numHidden];
+
+        grad = new double[weights.capacity()];
+
+        normalizedInput = new double[numInputs];
+    }
+
+    // Get method for the weight version
+    public long getVersion() { return version; }
+
+    // Get and set methods for the learning rate (e.g. for learning rate schedules)
+    public double getLearningRate() { return learningRate; }
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+        if (optimizer != null) optimizer.setLearningRate(learningRate);
+    }
+
+    /**
+     * Select the weight update rule.
+     * Off-heap, the optimizer state is kept in the store (and resumed from a mapped file).
+     * @param type The optimizer type (null = classic momentum computed from the old weights).
+     */
+    public void setOptimizer(Optimizer.Type type) {
+        int numWeights = weights.capacity();
+        if (type == null) {
+            optimizer = null;
+        } else if (store == null) {
+            optimizer = new Optimizer(type, numWeights, learningRate, momentumTerm);
+        } else {
+            optimizer = new Optimizer(type, store.doubles(2 * numWeights * WeightFile.DOUBLE, numWeights),
+                    store.doubles(3 * numWeights * WeightFile.DOUBLE, numWeights), learningRate, momentumTerm);
+        }
+    }
+
+    /**
+     * Move the weights, the old weights and the optimizer state off-heap, so that the GC neither scans
+     * nor copies them (same store layout as MultiLayerNet: 4 doubles per weight).
+     * If the file exists its contents are used, e.g. the weights trained by a previous process (zero-copy
+     * load), otherwise the current weights and old weights are copied into it and the optimizer state
+     * restarts. The header of the file holds the layer sizes and the one-hot size, see storeShape().
+     * The input normalizer is not part of the store; it is saved with the weight file.
+     * @param file The store file to map, null = direct buffer (not persisted).
+     * @throws IOException if the file cannot be mapped or does not match the structure of the neural net.
+     */
+    public void moveOffHeap(File file) throws IOException {
+        version++;
+        int numWeights = weights.capacity();
+        int bytes = numWeights * WeightFile.DOUBLE;
+        OffHeapStore newStore = file == null ? OffHeapStore.allocate(4 * bytes) :
+                OffHeapStore.map(file, OffHeapStore.KIND_NEURAL_NET, storeShape(), 4 * bytes);
+        DoubleBuffer newWeights = newStore.doubles(0, numWeights);
+        DoubleBuffer newOldWeights = newStore.doubles(bytes, numWeights);
+        if (!newStore.isExisting()) {
+            newWeights.put(weights.duplicate()).clear();
+            newOldWeights.put(oldWeights.duplicate()).clear();
+        }
+        weights = newWeights;
+        oldWeights = newOldWeights;
+        heapWeights = null;
+        heapOldWeights = null;
+        store = newStore;
+        if (optimizer != null) setOptimizer(optimizer.getType());
+    }
+
+    /**
+     * Return the shape stored in the header of the off-heap store file.
+     * @return {layer sizes as in the weight file, # of categories of the one-hot input}
+     */
+    int [] storeShape() {
+        return new int[]{numColumns, numHidden, 1, oneHotSize};
+    }
+
+    /**
+     * Write the weights and optimizer state of a mapped store to its file (no-op on the heap).
+     */
+    public void force() {
+        if (store != null) store.force();
+    }
+
+    // Get methods for the weight storage
+    public int getNumWeights() { return weights.capacity(); }
+    public boolean isOffHeap() { return store != null; }
+
+    // Get methods for the input layout
+    public int getNumInputs() { return numInputs; }
+    public int getOneHotSize() { return oneHotSize; }
+    public int getNumDenseInputs() { return numDense; }
+
+    // Get and set methods for the input normalizer (of the dense inputs)
+    public InputNormalizer getNormalizer() { return normalizer; }
+    public void setNormalizer(InputNormalizer normalizer) {
+        version++;
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * Create a neural net with one hidden layer of the selected precision.
+     * @param precision DOUBLE for NeuralNet, FLOAT for FloatNeuralNet.
+     * @return the neural net.
+     */
+    public static NeuralNetInterface create(
+            Precision precision,
+            ActFnType actFn,
+            int numInputs,
+            int numHidden,
+            double learningRate,
+            double momentumTerm,
+            double asymA,
+            double asymB) {
+        if (precision == Precision.FLOAT) {
+            return new FloatNeuralNet(actFn, numInputs, numHidden, learningRate, momentumTerm, asymA, asymB);
+        }
+        return new NeuralNet(actFn, numInputs, numHidden, learningRate, momentumTerm, asymA, asymB);
     }
 
     /**
@@ -134,18 +293,21 @@ public class NeuralNet implements NeuralNetInterface {
      * Like wise for hidden units. For say 2 hidden units which are stored in an array.
      * [0] & [1] are the hidden & [2] the bias.
      * We also initialize the last weight change arrays. This is to implement the alpha term.
+     * The random numbers come from the calling thread's stream (see Rng).
      */
     public void initializeWeights() {
-        // Randomize input to hidden layer weights
-        for (int i = 0; i < weightsI2H.length; i++) {
-            for (int j = 0; j < weightsI2H[0].length; j++) {
-                weightsI2H[i][j] = Math.random() - 0.5;
-            }
-        }
+        initializeWeights(Rng.current());
+    }
 
-        // Randomize hidden to output layer weights
-        for (int i = 0; i < weightsH2O.length; i++) {
-            weightsH2O[i] = Math.random() - 0.5;
+    /**
+     * Initialize the weights to random values between -0.5 and 0.5 from a given generator.
+     * @param rnd The random number generator.
+     */
+    public void initializeWeights(SplittableRandom rnd) {
+        version++;
+        // Randomize input to hidden layer weights, then hidden to output layer weights
+        for (int k = 0; k < weights.capacity(); k++) {
+            weights.put(k, rnd.nextDouble() - 0.5);
         }
     }
 
@@ -155,17 +317,69 @@ public class NeuralNet implements NeuralNetInterface {
      * @param loadWeightsH2O The weights in hidden to output layer
      */
     public void loadWeights(double [][] loadWeightsI2H, double [] loadWeightsH2O) {
-        // Load input to hidden layer weights
-        for (int i = 0; i < weightsI2H.length; i++) {
-            for (int j = 0; j < weightsI2H[0].length; j++) {
-                weightsI2H[i][j] = loadWeightsI2H[i][j];
+        version++;
+        put(weights, loadWeightsI2H, loadWeightsH2O);
+    }
+
+    /**
+     * Load the weights of another NN of the same structure with a bulk copy, e.g. to sync a target net.
+     * @param nn The NN to copy the weights from.
+     */
+    public void loadWeights(NeuralNet nn) {
+        version++;
+        weights.duplicate().put(nn.weights.duplicate());
+    }
+
+    /**
+     * Copy a set of weights into a weight buffer.
+     */
+    private void put(DoubleBuffer dst, double [][] wI2H, double [] wH2O) {
+        for (int i = 0; i < numHidden; i++) {
+            for (int j = 0; j < rowLength; j++) {
+                dst.put(i * rowLength + j, wI2H[i][j]);
+            }
+        }
+        for (int i = 0; i <= numHidden; i++) {
+            dst.put(outputOffset + i, wH2O[i]);
+        }
+    }
+
+    /**
+     * Return a copy of the input to hidden layer weights.
+     * @return numHidden x (numColumns + 1) array, bias weight last in each row.
+     */
+    public double [][] getWeightsI2H() {
+        double [][] wI2H = new double[numHidden][rowLength];
+        for (int i = 0; i < numHidden; i++) {
+            for (int j = 0; j < rowLength; j++) {
+                wI2H[i][j] = weights.get(i * rowLength + j);
             }
         }
+        return wI2H;
+    }
 
-        // Load hidden to output layer weights
-        for (int i = 0; i < weightsH2O.length; i++) {
-            weightsH2O[i] = loadWeightsH2O[i];
+    /**
+     * Return a copy of the hidden to output layer weights.
+     * @return numHidden + 1 weights, bias weight last.
+     */
+    public double [] getWeightsH2O() {
+        double [] wH2O = new double[numHidden + 1];
+        for (int i = 0; i <= numHidden; i++) {
+            wH2O[i] = weights.get(outputOffset + i);
         }
+        return wH2O;
+    }
+
+    /**
+     * Return a new NN with the same parameters and weights, e.g. a frozen target net or a per-thread
+     * copy for parallel evaluation (outputFor() is not thread-safe since it uses the layer buffers).
+     * @return the copy.
+     */
+    public NeuralNet copy() {
+        NeuralNet nn = new NeuralNet(actFn, numInputs, oneHotSize, numHidden, learningRate, momentumTerm, asymA, asymB);
+        nn.loadWeights(this);
+        if (normalizer != null) nn.normalizer = normalizer.copy();
+        return nn;
     }
 
     /**
@@ -174,33 +388,78 @@ public class NeuralNet implements NeuralNetInterface {
      * @param loadWeightsH2O The weights in hidden to output layer
      */
     public void loadOldWeights(double [][] loadWeightsI2H, double [] loadWeightsH2O) {
-        // Load input to hidden layer weights
-        for (int i = 0; i < oldWeightsI2H.length; i++) {
-            for (int j = 0; j < oldWeightsI2H[0].length; j++) {
-                oldWeightsI2H[i][j] = loadWeightsI2H[i][j];
-            }
+        put(oldWeights, loadWeightsI2H, loadWeightsH2O);
+    }
+
+    /**
+     * Initialize the old weights (and the optimizer state) to 0.
+     */
+    public void zeroWeights() {
+        if (optimizer != null) optimizer.reset();
+
+        // Zero input to hidden layer weights, then hidden to output layer weights
+        for (int k = 0; k < oldWeights.capacity(); k++) {
+            oldWeights.put(k, 0);
         }
+    }
 
-        // Load hidden to output layer weights
-        for (int i = 0; i < oldWeightsH2O.length; i++) {
-            oldWeightsH2O[i] = loadWeightsH2O[i];
+    /**
+     * Return the weight column of the category of the one-hot input.
+     * @param inputVector The input vector, the last input holds the category index.
+     * @return the weight column.
+     * @throws IllegalArgumentException if the category is not in {0..oneHotSize-1}, since it would read and
+     *         update the weights of another column.
+     */
+    int oneHotColumn(double[] inputVector) {
+        double category = inputVector[numDense];
+        if (!(category >= 0 && category < oneHotSize)) {
+            throw new IllegalArgumentException("One-hot category " + category + " not in {0.." + (oneHotSize - 1) + "}");
         }
+        return numDense + (int) category;
     }
 
     /**
-     * Initialize the weights to 0.
+     * Return a weight. The forward and backward passes read and write the weights through these accessors,
+     * which use the backing arrays directly on the heap since a buffer get or put is about twice as slow.
+     * @param k The weight index.
+     * @return the weight.
      */
-    public void zeroWeights() {
-        // Zero input to hidden layer weights
-        for (int i = 0; i < oldWeightsI2H.length; i++) {
-            for (int j = 0; j < oldWeightsI2H[0].length; j++) {
-                oldWeightsI2H[i][j] = 0;
-            }
+    private double weight(int k) {
+        return heapWeights != null ? heapWeights[k] : weights.get(k);
+    }
+
+    /**
+     * Set a weight.
+     * @param k The weight index.
+     * @param value The new weight.
+     */
+    private void setWeight(int k, double value) {
+        if (heapWeights != null) {
+            heapWeights[k] = value;
+        } else {
+            weights.put(k, value);
         }
+    }
 
-        // Zero hidden to output layer weights
-        for (int i = 0; i < oldWeightsH2O.length; i++) {
-            oldWeightsH2O[i] = 0;
+    /**
+     * Return an old weight.
+     * @param k The weight index.
+     * @return the old weight.
+     */
+    private double oldWeight(int k) {
+        return heapOldWeights != null ? heapOldWeights[k] : oldWeights.get(k);
+    }
+
+    /**
+     * Set an old weight.
+     * @param k The weight index.
+     * @param value The new old weight.
+     */
+    private void setOldWeight(int k, double value) {
+        if (heapOldWeights != null) {
+            heapOldWeights[k] = value;
+        } else {
+            oldWeights.put(k, value);
         }
     }
 
@@ -212,14 +471,22 @@ public class NeuralNet implements NeuralNetInterface {
      * Note: assume single output value here.  Change to double[] for more generic case.
      */
     public double outputFor(double[] inputVector) {
+        lastInput = normalizer == null ? inputVector : normalizer.normalize(inputVector, normalizedInput);
+        activeColumn = oneHotSize > 0 ? oneHotColumn(inputVector) : -1;
+        inputVector = lastInput;
+
         // Compute weighted sum (induced local) and activated signals at hidden layer
         for (int i = 0; i < numHidden; i++) {
+            int row = i * rowLength;
             inducedLocalHidden[i] = 0;
 
-            for (int j = 0; j < numInputs; j++) {
-                inducedLocalHidden[i] += inputVector[j] * weightsI2H[i][j];
+            for (int j = 0; j < numDense; j++) {
+                inducedLocalHidden[i] += inputVector[j] * weight(row + j);
             }
-            inducedLocalHidden[i] += 1.0 * weightsI2H[i][numInputs]; // Add bias weight
+            if (activeColumn >= 0) {
+                inducedLocalHidden[i] += weight(row + activeColumn);   // One-hot input, x = 1
+            }
+            inducedLocalHidden[i] += 1.0 * weight(row + numColumns); // Add bias weight
 
             if (actFn == ActFnType.BINARY) {
                 activatedHidden[i] = binarySigmoid(inducedLocalHidden[i]);
@@ -231,9 +498,9 @@ public class NeuralNet implements NeuralNetInterface {
         // Compute weighted sum (induced local) and activated signals at output layer
         inducedLocalOutput = 0;
         for (int i = 0; i < numHidden; i++) {
-            inducedLocalOutput += activatedHidden[i] * weightsH2O[i];
+            inducedLocalOutput += activatedHidden[i] * weight(outputOffset + i);
         }
-        inducedLocalOutput += 1.0 * weightsH2O[numHidden]; // Add bias weight
+        inducedLocalOutput += 1.0 * weight(outputOffset + numHidden); // Add bias weight
 
         //System.out.println(inducedLocalOutput);
 
@@ -266,9 +533,9 @@ public class NeuralNet implements NeuralNetInterface {
     public void bpErrorHidden() {
         for (int i = 0; i < numHidden; i++) {
             if (actFn == ActFnType.BINARY) {
-                deltaHidden[i] = weightsH2O[i] * deltaOutput * deriBinarySigmoid(activatedHidden[i]);
+                deltaHidden[i] = weight(outputOffset + i) * deltaOutput * deriBinarySigmoid(activatedHidden[i]);
             } else {
-                deltaHidden[i] = weightsH2O[i] * deltaOutput * deriBipolarSigmoid(activatedHidden[i]);
+                deltaHidden[i] = weight(outputOffset + i) * deltaOutput * deriBipolarSigmoid(activatedHidden[i]);
             }
         }
     }
@@ -277,43 +544,92 @@ public class NeuralNet implements NeuralNetInterface {
      * Update the weights from hidden to output layer using learning rate, momentum and weight delta.
      */
     public void updateWeightsH2O() {
-        // Backup current weights
-        System.arraycopy(weightsH2O, 0, tempWeightsH2O, 0, weightsH2O.length);
+        if (optimizer != null) {
+            for (int i = 0; i < numHidden; i++) {
+                changeWeight(outputOffset + i, optimizer.change(outputOffset + i, deltaOutput * activatedHidden[i]));
+            }
+            changeWeight(outputOffset + numHidden, optimizer.change(outputOffset + numHidden, deltaOutput * 1.0));
+            return;
+        }
 
         // Compute delta weight and update weight
         for (int i = 0; i < numHidden; i++) {
-            weightsH2O[i] += learningRate * deltaOutput * activatedHidden[i] + momentumTerm * deltaWeightsH2O(i);
+            updateWeight(outputOffset + i, deltaOutput * activatedHidden[i]);
         }
 
         // Update bias weight
-        weightsH2O[numHidden] += learningRate * deltaOutput * 1.0 + momentumTerm * deltaWeightsH2O(numHidden);
-
-        // Update old weights
-        System.arraycopy(tempWeightsH2O, 0, oldWeightsH2O, 0, weightsH2O.length);
+        updateWeight(outputOffset + numHidden, deltaOutput * 1.0);
     }
 
     /**
      * Update the weights from input to hidden layer using learning rate, momentum and weight delta.
+     * Of the one-hot input, only the column of the active category (of the last forward pass) is updated.
      * @param inputVector The input vector from training set.
      */
     public void updateWeightsI2H(double [] inputVector) {
-        // Backup current weights
-        for (int i = 0; i < numHidden; i++) {
-            System.arraycopy(weightsI2H[i], 0, tempWeightsI2H[i], 0, weightsI2H[i].length);
+        if (optimizer != null) {
+            for (int i = 0; i < numHidden; i++) {
+                int row = i * rowLength;
+                for (int j = 0; j < numDense; j++) {
+                    changeWeight(row + j, optimizer.change(row + j, deltaHidden[i] * inputVector[j]));
+                }
+                if (activeColumn >= 0) {
+                    changeWeight(row + activeColumn, optimizer.change(row + activeColumn, deltaHidden[i] * 1.0));
+                }
+                changeWeight(row + numColumns, optimizer.change(row + numColumns, deltaHidden[i] * 1.0));
+            }
+            return;
         }
 
         // Compute delta weight and update weight
         for (int i = 0; i < numHidden; i++) {
-            for (int j = 0; j < numInputs; j++) {
-                weightsI2H[i][j] += learningRate * deltaHidden[i] * inputVector[j] + momentumTerm * deltaWeightsI2H(i, j);
+            int row = i * rowLength;
+            for (int j = 0; j < numDense; j++) {
+                updateWeight(row + j, deltaHidden[i] * inputVector[j]);
+            }
+            for (int j = numDense; j < numColumns; j++) {
+                if (j == activeColumn) {
+                    updateWeight(row + j, deltaHidden[i] * 1.0);
+                } else {
+                    setOldWeight(row + j, weight(row + j));   // Inactive category, weight unchanged
+                }
             }
             // Update bias weight
-            weightsI2H[i][numInputs] += learningRate * deltaHidden[i] * 1.0 + momentumTerm * deltaWeightsI2H(i, numInputs);
+            updateWeight(row + numColumns, deltaHidden[i] * 1.0);
         }
+    }
 
-        // Update old weights
-        for (int i = 0; i < numHidden; i++) {
-            System.arraycopy(tempWeightsI2H[i], 0, oldWeightsI2H[i], 0, weightsI2H[i].length);
+    /**
+     * Update a weight with the classic momentum rule and keep its value before the update as old weight.
+     * @param k The weight index.
+     * @param gradient The negative error gradient of the weight.
+     */
+    private void updateWeight(int k, double gradient) {
+        double weight = weight(k);
+        setWeight(k, weight + (learningRate * gradient + momentumTerm * deltaWeight(k)));
+        setOldWeight(k, weight);
+    }
+
+    /**
+     * Add a change computed by the optimizer to a weight.
+     * @param k The weight index.
+     * @param change The weight change.
+     */
+    private void changeWeight(int k, double change) {
+        setWeight(k, weight(k) + change);
+    }
+
+    /**
+     * Return the delta weight = weight(n) - weight(n-1) where n is the epoch number.
+     * @param k The weight index.
+     * @return The delta weight.
+     */
+    private double deltaWeight(int k) {
+        double oldWeight = oldWeight(k);
+        if (oldWeight != 0) {
+            return weight(k) - oldWeight;
+        } else {
+            return 0;
         }
     }
 
@@ -324,11 +640,7 @@ public class NeuralNet implements NeuralNetInterface {
      * @return The delta weight.
      */
     public double deltaWeightsH2O(int i) {
-        if (oldWeightsH2O[i] != 0) {
-            return weightsH2O[i] - oldWeightsH2O[i];
-        } else {
-            return 0;
-        }
+        return deltaWeight(outputOffset + i);
     }
 
     /**
@@ -338,25 +650,84 @@ public class NeuralNet implements NeuralNetInterface {
      * @return The delta weight.
      */
     public double deltaWeightsI2H(int i, int j) {
-        if (oldWeightsI2H[i][j] != 0) {
-            return weightsI2H[i][j] - oldWeightsI2H[i][j];
-        } else {
-            return 0;
-        }
+        return deltaWeight(i * rowLength + j);
     }
 
     /**
      * Train the NN or the LUT the output value that should be mapped to the given input vector.
      * I.e. the desired correct output value for an input.
+     * The input normalizer (if any and not frozen) is updated with the input vector first.
      * @param inputVector The input vector
      * @param desiredOutput The new value to learn
      */
     public void train(double[] inputVector, double desiredOutput) {
+        version++;
+        if (oneHotSize > 0) oneHotColumn(inputVector);     // Reject the sample before it is observed
+        if (optimizer != null) optimizer.beginStep();
+        if (normalizer != null) normalizer.observe(inputVector);
         outputFor(inputVector);         // Forward pass
         bpErrorOutput(desiredOutput);   // Back propagate output layer error
         updateWeightsH2O();             // Update weights from hidden to output layer
         bpErrorHidden();                // Back propagate hidden layer error
-        updateWeightsI2H(inputVector);  // Update weights from input to hidden layer
+        updateWeightsI2H(lastInput);    // Update weights from input to hidden layer (normalized input)
+    }
+
+    /**
+     * Train the NN with a mini-batch of samples in one weight update.
+     * The gradients of all samples are computed with the same (current) weights and summed, so one batch of
+     * n samples moves the weights about as far as n calls to train() but with a single update.
+     * The input normalizer (if any and not frozen) is updated with all samples before the forward passes.
+     * @param inputVectors The input vectors, rows 0..n-1 are used.
+     * @param desiredOutputs The new values to learn, one per input vector.
+     * @param n The number of samples in the batch.
+     */
+    public void trainBatch(double[][] inputVectors, double[] desiredOutputs, int n) {
+        if (n == 0) return;
+        version++;
+        Arrays.fill(grad, 0.0);
+        if (oneHotSize > 0) {
+            for (int k = 0; k < n; k++) {
+                oneHotColumn(inputVectors[k]);  // Reject the batch before any sample is observed
+            }
+        }
+        if (normalizer != null) {
+            for (int k = 0; k < n; k++) {
+                normalizer.observe(inputVectors[k]);
+            }
+        }
+
+        for (int k = 0; k < n; k++) {
+            outputFor(inputVectors[k]);             // Forward pass
+            double [] inputVector = lastInput;      // Normalized input
+            bpErrorOutput(desiredOutputs[k]);       // Back propagate output layer error
+            bpErrorHidden();                        // Back propagate hidden layer error (weights not updated yet)
+
+            for (int i = 0; i < numHidden; i++) {
+                int row = i * rowLength;
+                grad[outputOffset + i] += deltaOutput * activatedHidden[i];
+                for (int j = 0; j < numDense; j++) {
+                    grad[row + j] += deltaHidden[i] * inputVector[j];
+                }
+                if (activeColumn >= 0) {
+                    grad[row + activeColumn] += deltaHidden[i] * 1.0;
+                }
+                grad[row + numColumns] += deltaHidden[i] * 1.0;
+            }
+            grad[outputOffset + numHidden] += deltaOutput * 1.0;
+        }
+
+        if (optimizer != null) {
+            optimizer.beginStep();
+            for (int k = 0; k < grad.length; k++) {
+                changeWeight(k, optimizer.change(k, grad[k]));
+            }
+            return;
+        }
+
+        // Classic momentum, same rule as updateWeightsH2O() and updateWeightsI2H()
+        for (int k = 0; k < grad.length; k++) {
+            updateWeight(k, grad[k]);
+        }
     }
 
     /**
@@ -444,20 +815,20 @@ public class NeuralNet implements NeuralNetInterface {
     public void save(FileWriter file) {
         try {
             file.append("Hidden to Output Layer\n");
-            for (int i = 0; i < weightsH2O.length; i++) {
-                if (i != weightsH2O.length - 1) {
-                    file.append(weightsH2O[i] + "\t");
+            for (int i = 0; i <= numHidden; i++) {
+                if (i != numHidden) {
+                    file.append(weights.get(outputOffset + i) + "\t");
                 } else
-                    file.append(weightsH2O[i] + "\n"); // insert line break for last element in array
+                    file.append(weights.get(outputOffset + i) + "\n"); // insert line break for last element in array
             }
 
             file.append("Input to Hidden Layer\n");
-            for (int i = 0; i < weightsI2H.length; i++) {
-                for (int j = 0; j < weightsI2H[0].length; j++) {
-                    if (j != weightsI2H[0].length - 1) {
-                        file.append(weightsI2H[i][j] + "\t");
+            for (int i = 0; i < numHidden; i++) {
+                for (int j = 0; j < rowLength; j++) {
+                    if (j != rowLength - 1) {
+                        file.append(weights.get(i * rowLength + j) + "\t");
                     } else
-                        file.append(weightsI2H[i][j] + "\n"); // insert line break for last element in array
+                        file.append(weights.get(i * rowLength + j) + "\n"); // insert line break for last element in array
                 }
             }
         } catch (Exception e) {
@@ -466,74 +837,191 @@ public class NeuralNet implements NeuralNetInterface {
     }
 
     /**
-     * Save the weights of a neural net to a file to be loaded later when needed (robocode version).
+     * Save the weights of a neural net to a binary weight file (robocode version).
      * @param filename of type File
      */
     public void save(File filename) {
-        PrintStream w = null;
+        OutputStream out = null;
         try {
-            w = new PrintStream(new RobocodeFileOutputStream(filename));
-            w.println("Hidden to Output Layer");
-            for (int i = 0; i < weightsH2O.length; i++) {
-                if (i != weightsH2O.length - 1) {
-                    w.print(weightsH2O[i] + "\t");
-                } else
-                    w.println(weightsH2O[i]); // insert line break for last element in array
-            }
-            w.println("Input to Hidden Layer");
-            for (int i = 0; i < weightsI2H.length; i++) {
-                for (int j = 0; j < weightsI2H[0].length; j++) {
-                    if (j != weightsI2H[0].length - 1) {
-                        w.print(weightsI2H[i][j] + "\t");
-                    } else
-                        w.println(weightsI2H[i][j]); // insert line break for last element in array
-                }
-            }
-        } catch (Exception e) {
+            out = new RobocodeFileOutputStream(filename);
+            save(out);
+        } catch (IOException e) {
             e.printStackTrace();
         } finally {
-            w.flush();
-            w.close();
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
+    /**
+     * Write the weights of a neural net to an output stream in the binary weight file format.
+     * See WeightFile for the layout; hidden layer weights come first, then output layer weights.
+     * @param out The output stream
+     * @throws IOException if the write fails
+     */
+    public void save(OutputStream out) throws IOException {
+        save(out, false);
+    }
+
+    /**
+     * Write a training checkpoint: the weight file plus the old weights of the momentum term, so that
+     * training resumed from load() continues exactly as if it had not been interrupted.
+     * The state of an optimizer (see setOptimizer()) is not part of the checkpoint.
+     * @param out The output stream
+     * @throws IOException if the write fails
+     */
+    public void saveCheckpoint(OutputStream out) throws IOException {
+        save(out, true);
+    }
+
+    /**
+     * Write the binary weight file, optionally with the momentum section.
+     */
+    private void save(OutputStream out, boolean withMomentum) throws IOException {
+        int numWeights = weights.capacity();
+        int sectionBytes = normalizer == null ? 0 : WeightFile.sectionSize(normalizer.byteSize());
+        if (oneHotSize > 0) sectionBytes += WeightFile.sectionSize(8);
+        if (withMomentum) sectionBytes += WeightFile.sectionSize(numWeights * WeightFile.DOUBLE);
+        sectionBytes += WeightFile.boundsSize(layerActFns());
+        ByteBuffer buf = WeightFile.begin(layerSizes(), layerActFns(), WeightFile.DOUBLE, numWeights, sectionBytes);
+        putWeights(buf, weights);
+        if (normalizer != null) {
+            WeightFile.putSection(buf, WeightFile.SECTION_NORMALIZER, normalizer.byteSize());
+            normalizer.put(buf);
+        }
+        if (oneHotSize > 0) {
+            WeightFile.putSection(buf, WeightFile.SECTION_ONE_HOT, 8);
+            buf.putInt(numDense);
+            buf.putInt(oneHotSize);
+        }
+        if (withMomentum) {
+            WeightFile.putSection(buf, WeightFile.SECTION_MOMENTUM, numWeights * WeightFile.DOUBLE);
+            putWeights(buf, oldWeights);
+        }
+        WeightFile.putBounds(buf, layerActFns(), asymA, asymB);
+        WeightFile.finish(buf, out);
+    }
+
+    /**
+     * Write a weight buffer with a bulk put; its layout is the layout of the weight file.
+     */
+    private void putWeights(ByteBuffer buf, DoubleBuffer src) {
+        buf.asDoubleBuffer().put(src.duplicate());
+        buf.position(buf.position() + src.capacity() * WeightFile.DOUBLE);
+    }
+
     /**
      * Load the neural net weights from a file. The load must of course
      * have knowledge of how the data was written out by the save() method.
      * An error will be raised in the case that an attempt is being made to
      * load data into a neural net whose structure does not match
      * the data in the file (e.g. wrong number of hidden neurons).
+     * Both the binary weight file and the original tab-separated text file are accepted.
+     * The input normalizer is restored from the file, i.e. removed if the file has none.
+     * The bounds of a CUSTOM activation function are restored from the file if it has them.
      * @param filename of type File
      * @throws IOException if the input file does not match the neural net structure
      */
     public void load(File filename) throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(filename));
-        String line = reader.readLine(); // Skip comment line 1
-        try {
-            //int zz = 0;
-            while (line != null) {
-                //System.out.println(line);
-                line = reader.readLine();
-                String splitLine[] = line.split("\t");
-                for (int i = 0; i < weightsH2O.length; i++) {
-                    weightsH2O[i] = Double.valueOf(splitLine[i]);
-                }
+        version++;
+        if (!WeightFile.isWeightFile(filename)) {
+            loadText(filename);
+            return;
+        }
 
-                line = reader.readLine(); // Skip comment line 2
+        WeightFile file = WeightFile.read(filename);
+        file.expectStructure(layerSizes(), layerActFns());
+        file.expectSections(WeightFile.SECTION_NORMALIZER, WeightFile.SECTION_ONE_HOT, WeightFile.SECTION_MOMENTUM,
+                WeightFile.SECTION_BOUNDS);
+        ByteBuffer oneHot = file.getSection(WeightFile.SECTION_ONE_HOT);
+        if (oneHot == null ? oneHotSize > 0 :
+                oneHot.remaining() != 8 || oneHot.getInt() != numDense || oneHot.getInt() != oneHotSize) {
+            throw new IOException(filename + ": one-hot input does not match neural net");
+        }
 
-                for (int i = 0; i < weightsI2H.length; i++) {
-                    line = reader.readLine();
-                    splitLine = line.split("\t");
-                    for (int j = 0; j < weightsI2H[0].length; j++) {
-                        weightsI2H[i][j] = Double.valueOf(splitLine[j]);
-                    }
-                }
-                line = reader.readLine();
+        // Parse the sections first, so that an invalid section leaves the net unchanged
+        ByteBuffer section = file.getSection(WeightFile.SECTION_NORMALIZER);
+        InputNormalizer loadedNormalizer = section == null ? null : InputNormalizer.read(section, numDense);
+        ByteBuffer momentum = file.getSection(WeightFile.SECTION_MOMENTUM);
+        if (momentum != null && momentum.remaining() != file.getNumWeights() * WeightFile.DOUBLE) {
+            throw new IOException(filename + ": momentum section does not match neural net");
+        }
+        double [] bounds = file.getBounds();
+
+        file.get(weights);
+        normalizer = loadedNormalizer;
+        if (momentum != null) {
+            oldWeights.duplicate().put(momentum.asDoubleBuffer());
+        }
+        if (bounds != null) {
+            asymA = bounds[0];
+            asymB = bounds[1];
+        }
+    }
+
+    /**
+     * Load the neural net weights from a text file written by save(FileWriter).
+     * The text file has no input normalizer, so the normalizer is removed.
+     * @param filename of type File
+     * @throws IOException if the input file does not match the neural net structure
+     */
+    public void loadText(File filename) throws IOException {
+        version++;
+        normalizer = null;
+        double [][] loadWeightsI2H = new double[numHidden][rowLength];
+        double [] loadWeightsH2O = new double[numHidden + 1];
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            reader.readLine(); // Skip comment line 1
+            parseRow(reader.readLine(), loadWeightsH2O, filename);
+
+            reader.readLine(); // Skip comment line 2
+            for (int i = 0; i < numHidden; i++) {
+                parseRow(reader.readLine(), loadWeightsI2H[i], filename);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            reader.close();
         }
+        put(weights, loadWeightsI2H, loadWeightsH2O);
+    }
+
+    /**
+     * Parse a tab-separated row of weights.
+     * @param line The text line
+     * @param row The weight array to be filled
+     * @param filename The file name for error reporting
+     * @throws IOException if the number of weights does not match the row length
+     */
+    private void parseRow(String line, double [] row, File filename) throws IOException {
+        if (line == null) {
+            throw new IOException(filename + ": unexpected end of file");
+        }
+        String [] splitLine = line.split("\t");
+        if (splitLine.length != row.length) {
+            throw new IOException(filename + ": expected " + row.length + " weights but found " + splitLine.length);
+        }
+        try {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = Double.parseDouble(splitLine[i]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(filename + ": invalid weight", e);
+        }
+    }
+
+    /**
+     * Return the layer sizes of the neural net as stored in the weight file.
+     * @return {# of input weight columns (one per category of a one-hot input), # of hidden neurons, # of outputs}
+     */
+    public int [] layerSizes() {
+        return new int[]{numColumns, numHidden, 1};
+    }
+
+    /**
+     * Return the activation functions of the hidden and output layers as stored in the weight file.
+     * @return {hidden activation, output activation}
+     */
+    public ActFnType [] layerActFns() {
+        return new ActFnType[]{actFn, actFn};
     }
 }
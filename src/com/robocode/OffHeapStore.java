@@ -0,0 +1,163 @@
+package com.robocode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Storage of large primitive arrays (LUT cells, weights, optimizer state) outside the Java heap,
+ * so that the GC does not scan or copy them.
+ * - allocate() : direct buffer, released with the store
+ * - map()      : memory-mapped file, i.e. the arrays are persisted without serialization and can be
+ *                shared by several processes mapping the same file; an existing file is reused as is
+ * A mapped file starts with a header (big-endian):
+ * - int  magic "RLOH"
+ * - int  format version
+ * - int  kind of the owner (e.g. KIND_LUT), so that a file is not mapped by the wrong owner
+ * - int  byte order of the payload (0 = big-endian, 1 = little-endian)
+ * - long payload size in bytes
+ * - int  number of dimensions D of the owner's shape
+ * - int[D] shape of the owner (e.g. the layer sizes of a net), so that a file of the same size but
+ *          another structure is not mapped
+ * - padding to a multiple of 8 bytes, so that the doubles of the payload are aligned
+ * The payload uses the native byte order; the owner views it as double and int buffers with absolute
+ * get/put, which the JIT compiles to plain loads and stores.
+ */
+public class OffHeapStore {
+    static final int MAGIC = 0x524C4F48;    // "RLOH"
+    static final int VERSION = 2;
+    public static final int KIND_LUT = 1;
+    public static final int KIND_NET = 2;           // MultiLayerNet
+    public static final int KIND_NEURAL_NET = 3;    // NeuralNet
+
+    private final ByteBuffer payload;
+    private final MappedByteBuffer mapped;  // null if not backed by a file
+    private final boolean existing;         // true if the payload was read from an existing file
+
+    // Constructor
+    private OffHeapStore(ByteBuffer payload, MappedByteBuffer mapped, boolean existing) {
+        this.payload = payload.order(ByteOrder.nativeOrder());
+        this.mapped = mapped;
+        this.existing = existing;
+    }
+
+    /**
+     * Allocate a zeroed store in a direct buffer.
+     * @param bytes The payload size.
+     * @return the store.
+     */
+    public static OffHeapStore allocate(int bytes) {
+        return new OffHeapStore(ByteBuffer.allocateDirect(bytes), null, false);
+    }
+
+    /**
+     * Return the size of the header of a store file.
+     * @param shape The shape of the owner.
+     * @return the header size, a multiple of 8.
+     */
+    static int headerSize(int [] shape) {
+        return (28 + 4 * shape.length + 7) & ~7;
+    }
+
+    /**
+     * Map a store file, creating it (zeroed) if missing.
+     * @param file The store file.
+     * @param kind The kind of the owner.
+     * @param shape The shape of the owner, e.g. its layer sizes.
+     * @param bytes The payload size.
+     * @return the store, isExisting() tells if the payload comes from an existing file.
+     * @throws IOException if the file cannot be mapped or was written for another owner, shape or size.
+     */
+    public static OffHeapStore map(File file, int kind, int [] shape, int bytes) throws IOException {
+        int headerSize = headerSize(shape);
+        long size = headerSize + (long) bytes;
+        int order = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0;
+        MappedByteBuffer mapped;
+        boolean existing;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            existing = channel.size() != 0;
+            if (existing && channel.size() != size) {
+                throw new IOException("Off-heap store size " + channel.size() + " != " + size + ": " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        if (existing) {
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION || mapped.getInt(8) != kind ||
+                    mapped.getLong(16) != bytes) {
+                throw new IOException("Not an off-heap store of kind " + kind + ": " + file);
+            }
+            if (mapped.getInt(12) != order) {
+                throw new IOException("Off-heap store written with another byte order: " + file);
+            }
+            int [] fileShape = new int[mapped.getInt(24) == shape.length ? shape.length : 0];
+            for (int i = 0; i < fileShape.length; i++) fileShape[i] = mapped.getInt(28 + 4 * i);
+            if (!Arrays.equals(fileShape, shape)) {
+                throw new IOException("Off-heap store shape does not match " + Arrays.toString(shape) + ": " + file);
+            }
+        } else {
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, VERSION);
+            mapped.putInt(8, kind);
+            mapped.putInt(12, order);
+            mapped.putLong(16, bytes);
+            mapped.putInt(24, shape.length);
+            for (int i = 0; i < shape.length; i++) mapped.putInt(28 + 4 * i, shape[i]);
+        }
+
+        mapped.position(headerSize);
+        ByteBuffer payload = mapped.slice();
+        mapped.position(0);
+        return new OffHeapStore(payload, mapped, existing);
+    }
+
+    /**
+     * Return a view of a range of the payload as doubles.
+     * @param offset The byte offset in the payload (multiple of 8).
+     * @param count The # of doubles.
+     * @return the view, index 0 = first double of the range.
+     */
+    public DoubleBuffer doubles(int offset, int count) {
+        return range(offset, count * 8).asDoubleBuffer();
+    }
+
+    /**
+     * Return a view of a range of the payload as ints.
+     * @param offset The byte offset in the payload (multiple of 4).
+     * @param count The # of ints.
+     * @return the view, index 0 = first int of the range.
+     */
+    public IntBuffer ints(int offset, int count) {
+        return range(offset, count * 4).asIntBuffer();
+    }
+
+    /**
+     * Return a range of the payload in the native byte order.
+     */
+    private ByteBuffer range(int offset, int bytes) {
+        ByteBuffer buf = payload.duplicate();
+        buf.position(offset);
+        buf.limit(offset + bytes);
+        return buf.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Write the changes of a mapped store to its file (no-op for a direct buffer).
+     */
+    public void force() {
+        if (mapped != null) mapped.force();
+    }
+
+    // Get methods
+    public boolean isMapped() { return mapped != null; }
+    public boolean isExisting() { return existing; }
+    public int size() { return payload.capacity(); }
+}
@@ -0,0 +1,178 @@
+package com.robocode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class OfflineTrain {
+    static final double gamma = 0.1;    // Discount factor, same as MyRobotNN
+    static final int batchSize = 16;    // # of samples per weight update
+
+    /**
+     * Standalone fitted Q-iteration over the experiences recorded by MyRobotNN (see ReplayStore).
+     * - Load all experiences of the replay directory
+     * - Create the NN of MyRobotNN, starting from the weight file if it exists
+     * - For each iteration
+     * -   Freeze a copy of the NN as target net
+     * -   Compute the targets reward + gamma^steps * max Q_target(next state, a) of all experiences on all cores
+     * -   Fit the NN to the targets for a number of epochs of shuffled mini-batches
+     * - Write the weights to the weight file, loadable by MyRobotNN (loadWeights = true)
+     * @param args Optional: replay directory (default "replay"), weight file (default "NN_weights.dat"),
+     *             # of iterations (default 20), # of epochs per iteration (default 10)
+     */
+    public static void main(String[] args) {
+        File replayDir = new File(args.length > 0 ? args[0] : "replay");
+        File weightFile = new File(args.length > 1 ? args[1] : MyRobotNN.weightFileName);
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+
+        // Load recorded experiences
+        ReplayStore store = null;
+        try {
+            store = ReplayStore.open(replayDir, "replay_", MyRobotNN.replaySegmentCapacity, Integer.MAX_VALUE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        int n = store.size();
+        if (n == 0) {
+            System.out.println("No experiences in " + replayDir);
+            System.exit(-1);
+        }
+        double [][] inputs = new double[n][];
+        double [][] nextStates = new double[n][];
+        double [] rewards = new double[n];
+        double [] discounts = new double[n];  // gamma^steps of n-step experiences
+        try {
+            for (int i = 0; i < n; i++) {
+                Experience exp = store.get(i);
+                inputs[i] = new double[]{exp.prevState.getXPos(), exp.prevState.getYPos(),
+                        exp.prevState.getDist(), exp.prevState.getEnergy(), exp.prevAction.ordinal()};
+                nextStates[i] = new double[]{exp.currState.getXPos(), exp.currState.getYPos(),
+                        exp.currState.getDist(), exp.currState.getEnergy(), 0};
+                rewards[i] = exp.currReward;
+                discounts[i] = Math.pow(gamma, exp.steps);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        System.out.println("Loaded " + n + " experiences from " + replayDir + ", " + numThreads + " threads");
+
+        // Create NN, continue from saved weights if any
+        NeuralNet nn = MyRobotNN.newNet();
+        nn.initializeWeights();
+        nn.zeroWeights();
+        if (weightFile.exists()) {
+            try {
+                nn.load(weightFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+                nn.initializeWeights();
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        double [] targets = new double[n];
+        double [][] batchInputs = new double[batchSize][];
+        double [] batchTargets = new double[batchSize];
+        int [] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        SplittableRandom rnd = Rng.current();
+
+        try {
+            for (int k = 1; k <= iterations; k++) {
+                long startTime = System.nanoTime();
+                computeTargets(executor, numThreads, nn.copy(), nextStates, rewards, discounts, targets);
+
+                for (int epoch = 0; epoch < epochs; epoch++) {
+                    shuffle(order, rnd);
+                    for (int from = 0; from < n; from += batchSize) {
+                        int size = Math.min(batchSize, n - from);
+                        for (int b = 0; b < size; b++) {
+                            batchInputs[b] = inputs[order[from + b]];
+                            batchTargets[b] = targets[order[from + b]];
+                        }
+                        nn.trainBatch(batchInputs, batchTargets, size);
+                    }
+                }
+
+                System.out.printf("Iteration %d: RMS error = %.5f, %.1f ms%n", k,
+                        LUTTrain.rmsError(nn, inputs, targets, 0, n), (System.nanoTime() - startTime) / 1e6);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-1);
+        } finally {
+            executor.shutdown();
+        }
+
+        // Save weights in the binary format loaded by MyRobotNN
+        try (OutputStream out = new FileOutputStream(weightFile)) {
+            nn.save(out);
+            System.out.println("Weights saved to " + weightFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Compute the fitted Q-iteration targets in parallel, one chunk of experiences per thread.
+     * Each chunk uses its own copy of the target net since outputFor() is not thread-safe.
+     * @param executor The thread pool.
+     * @param numChunks # of chunks.
+     * @param targetNet The frozen target net.
+     * @param nextStates Next states (last element is overwritten by each action).
+     * @param rewards Rewards.
+     * @param discounts Discount factor of each experience, gamma^steps.
+     * @param targets Output: reward + discount * max Q_target(next state, a).
+     */
+    static void computeTargets(ExecutorService executor, int numChunks, NeuralNet targetNet,
+                               double [][] nextStates, double [] rewards, double [] discounts,
+                               double [] targets) throws Exception {
+        int n = rewards.length;
+        int chunk = (n + numChunks - 1) / numChunks;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < n; from += chunk) {
+            final int start = from;
+            final int end = Math.min(n, from + chunk);
+            final NeuralNet net = targetNet.copy();
+            futures.add(executor.submit(() -> {
+                for (int i = start; i < end; i++) {
+                    double [] x = nextStates[i];
+                    double maxQ = Double.NEGATIVE_INFINITY;
+                    for (int a = 0; a < MyRobotNN.stateAction.values().length; a++) {
+                        x[4] = a;
+                        maxQ = Math.max(maxQ, net.outputFor(x));
+                    }
+                    targets[i] = rewards[i] + discounts[i] * maxQ;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    /**
+     * Shuffle the training order in place (Fisher-Yates).
+     * @param order The sample indices.
+     * @param rnd The random number generator.
+     */
+    static void shuffle(int [] order, SplittableRandom rnd) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+        }
+    }
+}
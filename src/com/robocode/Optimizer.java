@@ -0,0 +1,127 @@
+package com.robocode;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Weight update rules for back propagation.
+ * The state of the optimizer (velocity, first and second moments) is kept in flat buffers
+ * indexed like the weights in the binary weight file, i.e. one entry per weight; heap arrays by default,
+ * or buffers supplied by the owner, e.g. off-heap (see OffHeapStore).
+ * - MOMENTUM : v = mu * v + lr * g,            change = v
+ * - NESTEROV : v = mu * v + lr * g,            change = mu * v + lr * g
+ * - RMSPROP  : s = rho * s + (1 - rho) * g^2,  change = lr * g / (sqrt(s) + eps)
+ * - ADAM     : m = b1 * m + (1 - b1) * g, s = b2 * s + (1 - b2) * g^2,
+ *              change = lr * m_hat / (sqrt(s_hat) + eps) with bias corrected m_hat, s_hat
+ * where g = delta * input is the negative error gradient of the weight, so that weight += change.
+ */
+public class Optimizer {
+    public enum Type {
+        MOMENTUM,
+        NESTEROV,
+        RMSPROP,
+        ADAM
+    }
+
+    /**
+     * Parameters of the optimizer
+     */
+    private Type type;
+    private double learningRate;    // The learning rate coefficient
+    private double momentumTerm;    // Momentum (MOMENTUM, NESTEROV) or first moment decay (ADAM)
+    private double decay = 0.999;   // Second moment decay (RMSPROP uses 0.9)
+    private double epsilon = 1e-8;  // Avoid division by zero
+
+    /**
+     * State of the optimizer, one entry per weight
+     */
+    private DoubleBuffer first;     // Velocity or first moment
+    private DoubleBuffer second;    // Second moment
+    private int step = 0;       // # of training steps (for ADAM bias correction)
+    private double firstCorrection = 1;
+    private double secondCorrection = 1;
+
+    // Constructor
+    public Optimizer(Type type, int numWeights, double learningRate, double momentumTerm) {
+        this(type, DoubleBuffer.wrap(new double[numWeights]), DoubleBuffer.wrap(new double[numWeights]),
+                learningRate, momentumTerm);
+    }
+
+    /**
+     * Create an optimizer whose state is kept in the given buffers.
+     * The buffer contents are used as the initial state, e.g. the state of a store file mapped again
+     * (the ADAM step count is not part of the state and restarts at 0).
+     * @param first Buffer of the velocity or first moment, one entry per weight.
+     * @param second Buffer of the second moment, one entry per weight.
+     */
+    public Optimizer(Type type, DoubleBuffer first, DoubleBuffer second, double learningRate, double momentumTerm) {
+        this.type = type;
+        this.learningRate = learningRate;
+        this.momentumTerm = momentumTerm;
+        if (type == Type.RMSPROP) decay = 0.9;
+
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * Clear the optimizer state, e.g. at start of a new trial.
+     */
+    public void reset() {
+        for (int i = 0; i < first.capacity(); i++) {
+            first.put(i, 0.0);
+            second.put(i, 0.0);
+        }
+        step = 0;
+        firstCorrection = 1;
+        secondCorrection = 1;
+    }
+
+    /**
+     * Start a new training step (one train() call of the neural net).
+     */
+    public void beginStep() {
+        step++;
+        if (type == Type.ADAM) {
+            firstCorrection = 1 - Math.pow(momentumTerm, step);
+            secondCorrection = 1 - Math.pow(decay, step);
+        }
+    }
+
+    /**
+     * Return the weight change of a weight and update its optimizer state.
+     * @param i The weight index.
+     * @param gradient The negative error gradient of the weight (delta * input).
+     * @return The weight change.
+     */
+    public double change(int i, double gradient) {
+        switch (type) {
+            case NESTEROV: {
+                double v = momentumTerm * first.get(i) + learningRate * gradient;
+                first.put(i, v);
+                return momentumTerm * v + learningRate * gradient;
+            }
+            case RMSPROP: {
+                double s = decay * second.get(i) + (1 - decay) * gradient * gradient;
+                second.put(i, s);
+                return learningRate * gradient / (Math.sqrt(s) + epsilon);
+            }
+            case ADAM: {
+                double m = momentumTerm * first.get(i) + (1 - momentumTerm) * gradient;
+                double s = decay * second.get(i) + (1 - decay) * gradient * gradient;
+                first.put(i, m);
+                second.put(i, s);
+                return learningRate * (m / firstCorrection) / (Math.sqrt(s / secondCorrection) + epsilon);
+            }
+            default: {
+                double v = momentumTerm * first.get(i) + learningRate * gradient;
+                first.put(i, v);
+                return v;
+            }
+        }
+    }
+
+    // Get and set methods
+    public Type getType() { return type; }
+    public double getLearningRate() { return learningRate; }
+    public void setLearningRate(double learningRate) { this.learningRate = learningRate; }
+}
@@ -0,0 +1,170 @@
+package com.robocode;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of the Q values of all actions of a state, in front of the policy net.
+ * - Key     : the 4 quantized state values (0.01 steps) packed into a long
+ * - Version : the weight version of the net when the Q values were computed; an entry with an
+ *             older version is stale and treated as a miss (invalidated lazily)
+ * - Lookup  : open addressing hash table (linear probing) from key to slot
+ * - Eviction: CLOCK, i.e. the hand skips (and clears) slots referenced since its last pass
+ * All storage is preallocated primitive arrays, so lookups and inserts do not allocate.
+ */
+public class PolicyCache {
+    private final int capacity;         // Max # of cached states
+    private final int numActions;       // # of Q values per state
+    private final int [] table;         // Slot of each hash table bucket, -1 if empty
+    private final int mask;             // Hash table size - 1 (power of 2)
+
+    // Slots
+    private final long [] keys;
+    private final long [] versions;
+    private final double [] values;     // Q values of slot s at [s * numActions .. (s + 1) * numActions - 1]
+    private final boolean [] referenced;
+    private int count = 0;              // # of slots in use
+    private int hand = 0;               // CLOCK hand
+
+    private long hits = 0;
+    private long misses = 0;
+
+    // Constructor
+    public PolicyCache(int capacity, int numActions) {
+        this.capacity = capacity;
+        this.numActions = numActions;
+
+        int size = Integer.highestOneBit(Math.max(1, capacity) * 2 - 1) << 1;   // >= 2 x capacity
+        table = new int[size];
+        mask = size - 1;
+        Arrays.fill(table, -1);
+
+        keys = new long[capacity];
+        versions = new long[capacity];
+        values = new double[capacity * numActions];
+        referenced = new boolean[capacity];
+    }
+
+    /**
+     * Return the cache key of a state.
+     * @param x The quantized state values {x, y, distance, energy, ...}.
+     * @return the 4 state values in 0.01 steps, 16 bits each.
+     */
+    public static long key(double [] x) {
+        long key = 0;
+        for (int i = 0; i < 4; i++) {
+            key = (key << 16) | (Math.round(x[i] * 100) & 0xFFFF);
+        }
+        return key;
+    }
+
+    /**
+     * Look up the Q values of a state.
+     * @param key The state key.
+     * @param version The current weight version of the net.
+     * @param q Output: the Q value of each action if found.
+     * @return true if found with the current version.
+     */
+    public boolean lookup(long key, long version, double [] q) {
+        int slot = find(key);
+        if (slot >= 0 && versions[slot] == version) {
+            System.arraycopy(values, slot * numActions, q, 0, numActions);
+            referenced[slot] = true;
+            hits++;
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    /**
+     * Store the Q values of a state, replacing a stale entry of the state or evicting another state.
+     * @param key The state key.
+     * @param version The weight version of the net the Q values were computed with.
+     * @param q The Q value of each action.
+     */
+    public void put(long key, long version, double [] q) {
+        int slot = find(key);
+        if (slot < 0) {
+            if (count < capacity) {
+                slot = count++;
+            } else {
+                slot = evict();
+            }
+            keys[slot] = key;
+            referenced[slot] = false;   // Set by the first hit, so states never looked up again are evicted first
+            insert(key, slot);
+        }
+        versions[slot] = version;
+        System.arraycopy(q, 0, values, slot * numActions, numActions);
+    }
+
+    /**
+     * Drop all entries.
+     */
+    public void clear() {
+        Arrays.fill(table, -1);
+        Arrays.fill(referenced, false);
+        count = 0;
+        hand = 0;
+    }
+
+    /**
+     * Return the hash table bucket of a key.
+     */
+    private int bucket(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & mask;
+    }
+
+    /**
+     * Return the slot of a key, or -1 if not cached.
+     */
+    private int find(long key) {
+        for (int b = bucket(key); table[b] >= 0; b = (b + 1) & mask) {
+            if (keys[table[b]] == key) return table[b];
+        }
+        return -1;
+    }
+
+    /**
+     * Add a key to the hash table.
+     */
+    private void insert(long key, int slot) {
+        int b = bucket(key);
+        while (table[b] >= 0) b = (b + 1) & mask;
+        table[b] = slot;
+    }
+
+    /**
+     * Select a slot to evict with the CLOCK algorithm and remove its key from the hash table.
+     * @return the free slot.
+     */
+    private int evict() {
+        while (referenced[hand]) {
+            referenced[hand] = false;
+            hand = (hand + 1) % capacity;
+        }
+        int slot = hand;
+        hand = (hand + 1) % capacity;
+
+        // Remove the key and shift back the following entries of its probe sequence
+        int b = bucket(keys[slot]);
+        while (table[b] != slot) b = (b + 1) & mask;
+        table[b] = -1;
+        for (int next = (b + 1) & mask; table[next] >= 0; next = (next + 1) & mask) {
+            int home = bucket(keys[table[next]]);
+            // Move the entry into the hole if its home bucket is not between the hole and its position
+            if (((next - home) & mask) >= ((next - b) & mask)) {
+                table[b] = table[next];
+                table[next] = -1;
+                b = next;
+            }
+        }
+        return slot;
+    }
+
+    // Get methods
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public int size() { return count; }
+}
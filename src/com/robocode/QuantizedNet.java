@@ -0,0 +1,231 @@
+package com.robocode;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Int8 post-training quantized version of a trained NeuralNet for inference only
+ * (e.g. competitive battles with alpha = 0).
+ * - Weights of each layer are quantized symmetrically: w = wScale * q, q in {-127..127}
+ * - Inputs are quantized with a scale calibrated from sample inputs (max absolute value per input)
+ * - Hidden activations are bounded by the sigmoid and use a fixed scale of 1/127
+ * - Dot products are accumulated in int, bias weights are pre-scaled to the accumulator scale
+ * - The sigmoid is read from a precomputed table over the clamped accumulator range
+ * A one-hot input of the NeuralNet is quantized as one input per category with value 1 or 0.
+ * The input normalizer of the NeuralNet (if any) is folded into the input to hidden weights, so the quantized
+ * net takes the raw inputs.
+ * The quantized net cannot be trained or saved; build it from a NeuralNet or its weight file.
+ */
+public class QuantizedNet {
+    static final int qMax = 127;            // Largest quantized magnitude
+    static final int sigmoidSize = 4096;    // # of entries of the sigmoid table
+    static final double sigmoidRange = 8.0; // Sigmoid table covers induced local field {-8, 8}
+
+    private NeuralNet.ActFnType actFn;
+    private int numInputs;  // # of input weight columns
+    private int numDense;   // # of dense inputs, the following columns are the categories of a one-hot input
+    private int numHidden;
+
+    /**
+     * Quantized weights and scales
+     */
+    byte [] weightsI2H;     // numHidden x numInputs, row major
+    int [] biasHidden;      // Hidden bias in accumulator scale
+    byte [] weightsH2O;     // numHidden
+    int biasOutput;         // Output bias in accumulator scale
+    double [] inputScale;   // Scale of each input: x = inputScale * q
+    double [] inputInvScale;
+    double [] hiddenScale;  // Accumulator scale of each hidden neuron = wScaleI2H * inputScale
+    double outputScale;     // Accumulator scale of output = wScaleH2O * hidden activation scale
+
+    // Preallocated buffers for inference
+    byte [] inputQ;
+    byte [] hiddenQ;
+
+    // Activation table indexed by induced local field
+    float [] sigmoidTable;
+
+    /**
+     * Quantize the weights of a trained neural net.
+     * @param nn The trained neural net.
+     * @param calibration Sample input vectors used to calibrate the input scales (e.g. the training set).
+     */
+    public QuantizedNet(NeuralNet nn, double [][] calibration) {
+        this(nn.layerSizes()[0], nn.getNumDenseInputs(), nn.layerSizes()[1], nn.layerActFns()[0]);
+        double [][] weightsI2H = nn.getWeightsI2H();
+        quantize(nn.getNormalizer() == null ? weightsI2H : nn.getNormalizer().fold(weightsI2H),
+                nn.getWeightsH2O(), calibration);
+    }
+
+    // Constructor allocating the data structures
+    private QuantizedNet(int numInputs, int numDense, int numHidden, NeuralNet.ActFnType actFn) {
+        this.numInputs = numInputs;
+        this.numDense = numDense;
+        this.numHidden = numHidden;
+        this.actFn = actFn;
+
+        weightsI2H = new byte[numHidden * numInputs];
+        biasHidden = new int[numHidden];
+        weightsH2O = new byte[numHidden];
+        inputScale = new double[numInputs];
+        inputInvScale = new double[numInputs];
+        hiddenScale = new double[numHidden];
+        inputQ = new byte[numInputs];
+        hiddenQ = new byte[numHidden];
+
+        sigmoidTable = new float[sigmoidSize + 1];
+        for (int i = 0; i <= sigmoidSize; i++) {
+            double v = (2.0 * i / sigmoidSize - 1) * sigmoidRange;
+            sigmoidTable[i] = (float) (actFn == NeuralNet.ActFnType.BINARY ?
+                    1 / (1 + Math.exp(-v)) : 2 / (1 + Math.exp(-v)) - 1);
+        }
+    }
+
+    /**
+     * Load the weights saved by a NeuralNet with all inputs dense and quantize them.
+     * @param filename The binary (or text) weight file of a NeuralNet.
+     * @param actFn Activation function of the saved net.
+     * @param numInputs Dimension of input vector.
+     * @param numHidden Dimension of hidden layer.
+     * @param calibration Sample input vectors used to calibrate the input scales.
+     * @return the quantized net.
+     * @throws IOException if the file does not match the given structure.
+     */
+    public static QuantizedNet load(File filename, NeuralNet.ActFnType actFn, int numInputs, int numHidden,
+                                    double [][] calibration) throws IOException {
+        return load(filename, actFn, numInputs, 0, numHidden, calibration);
+    }
+
+    /**
+     * Load the weights saved by NeuralNet and quantize them.
+     * @param filename The binary (or text) weight file of a NeuralNet.
+     * @param actFn Activation function of the saved net.
+     * @param numInputs Dimension of input vector.
+     * @param oneHotSize # of categories of the last input if it is one-hot encoded (0 = all inputs dense).
+     * @param numHidden Dimension of hidden layer.
+     * @param calibration Sample input vectors used to calibrate the input scales.
+     * @return the quantized net.
+     * @throws IOException if the file does not match the given structure.
+     */
+    public static QuantizedNet load(File filename, NeuralNet.ActFnType actFn, int numInputs, int oneHotSize,
+                                    int numHidden, double [][] calibration) throws IOException {
+        NeuralNet nn = new NeuralNet(actFn, numInputs, oneHotSize, numHidden, 0, 0, -1, 1);
+        nn.load(filename);
+        return new QuantizedNet(nn, calibration);
+    }
+
+    /**
+     * Load the weights saved by MyRobotNN (structure of MyRobotNN.newNet()) and quantize them.
+     * @param filename The weight file saved by the robot.
+     * @param calibration Sample input vectors used to calibrate the input scales.
+     * @return the quantized net.
+     * @throws IOException if the file does not match the structure of the robot's NN.
+     */
+    public static QuantizedNet loadRobot(File filename, double [][] calibration) throws IOException {
+        NeuralNet nn = MyRobotNN.newNet();
+        nn.load(filename);
+        return new QuantizedNet(nn, calibration);
+    }
+
+    /**
+     * Compute the scales and quantized weights.
+     */
+    private void quantize(double [][] wI2H, double [] wH2O, double [][] calibration) {
+        // Input scales from the calibration set, one-hot inputs are 0 or 1
+        for (int j = numDense; j < numInputs; j++) {
+            inputScale[j] = 1.0 / qMax;
+            inputInvScale[j] = qMax;
+        }
+        for (int j = 0; j < numDense; j++) {
+            double maxAbs = 0;
+            for (double [] x : calibration) {
+                maxAbs = Math.max(maxAbs, Math.abs(x[j]));
+            }
+            inputScale[j] = maxAbs > 0 ? maxAbs / qMax : 1.0 / qMax;
+            inputInvScale[j] = 1 / inputScale[j];
+        }
+
+        // Input to hidden layer: one weight scale per layer
+        double maxAbs = 0;
+        for (int i = 0; i < numHidden; i++) {
+            for (int j = 0; j < numInputs; j++) {
+                maxAbs = Math.max(maxAbs, Math.abs(wI2H[i][j] * inputScale[j] * qMax));
+            }
+        }
+        // Fold the input scale of each column into the weights so that one accumulator scale fits all inputs
+        double wScale = maxAbs > 0 ? maxAbs / qMax : 1.0;
+        for (int i = 0; i < numHidden; i++) {
+            for (int j = 0; j < numInputs; j++) {
+                weightsI2H[i * numInputs + j] = toByte(wI2H[i][j] * inputScale[j] * qMax / wScale);
+            }
+            hiddenScale[i] = wScale / qMax;
+            biasHidden[i] = (int) Math.round(wI2H[i][numInputs] / hiddenScale[i]);
+        }
+
+        // Hidden to output layer, hidden activations use a fixed scale of 1/127
+        maxAbs = 0;
+        for (int i = 0; i < numHidden; i++) {
+            maxAbs = Math.max(maxAbs, Math.abs(wH2O[i]));
+        }
+        double wScaleH2O = maxAbs > 0 ? maxAbs / qMax : 1.0;
+        for (int i = 0; i < numHidden; i++) {
+            weightsH2O[i] = toByte(wH2O[i] / wScaleH2O);
+        }
+        outputScale = wScaleH2O / qMax;
+        biasOutput = (int) Math.round(wH2O[numHidden] / outputScale);
+    }
+
+    /**
+     * Round and clamp a value to a quantized byte.
+     */
+    private static byte toByte(double v) {
+        long q = Math.round(v);
+        return (byte) Math.max(-qMax, Math.min(qMax, q));
+    }
+
+    /**
+     * Return the sigmoid of an induced local field from the table.
+     */
+    private float activate(double v) {
+        if (v <= -sigmoidRange) return sigmoidTable[0];
+        if (v >= sigmoidRange) return sigmoidTable[sigmoidSize];
+        return sigmoidTable[(int) ((v / sigmoidRange + 1) * 0.5 * sigmoidSize + 0.5)];
+    }
+
+    /**
+     * Fixed point forward pass.
+     * @param x The input vector.
+     * @return The Q value for this input vector.
+     */
+    public double outputFor(double[] x) {
+        for (int j = 0; j < numDense; j++) {
+            inputQ[j] = toByte(x[j] * inputInvScale[j]);
+        }
+        if (numDense < numInputs) {
+            double category = x[numDense];
+            if (!(category >= 0 && category < numInputs - numDense)) {
+                throw new IllegalArgumentException("One-hot category " + category + " not in {0.." +
+                        (numInputs - numDense - 1) + "}");
+            }
+            for (int j = numDense; j < numInputs; j++) {
+                inputQ[j] = 0;
+            }
+            inputQ[numDense + (int) category] = qMax;
+        }
+
+        int w = 0;
+        for (int i = 0; i < numHidden; i++) {
+            int acc = biasHidden[i];
+            for (int j = 0; j < numInputs; j++) {
+                acc += weightsI2H[w++] * inputQ[j];
+            }
+            hiddenQ[i] = toByte(activate(acc * hiddenScale[i]) * qMax);
+        }
+
+        int acc = biasOutput;
+        for (int i = 0; i < numHidden; i++) {
+            acc += weightsH2O[i] * hiddenQ[i];
+        }
+        return activate(acc * outputScale);
+    }
+}
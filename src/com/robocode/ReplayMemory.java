@@ -1,7 +1,7 @@
 package com.robocode;
 
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.SplittableRandom;
 
 /**
  * Author: Sarbjit Sarkaria
@@ -43,20 +43,26 @@ public class ReplayMemory<T> {
     }
 
     // Retrieve a random sample of n items from the memory and return it as an array
+    // The random numbers come from the calling thread's stream (see Rng)
     public Object[] randomSample(int n) {
+        return randomSample(n, Rng.current());
+    }
+
+    // Retrieve a random sample of n items from the memory using a given generator
+    public Object[] randomSample(int n, SplittableRandom rnd) {
         if (memory.isEmpty())
             return EMPTYARRAY;
         else {
-            // I don't have a way of returning T[], so instead I return Object[]
-            // See the unit tests to see how to use this tyle - no additional effort necessary
-            // .... see here for more : https://stackoverflow.com/questions/1115230/casting-object-array-to-integer-array-error
+            // Partial Fisher-Yates shuffle of a copy: only the n sampled positions are drawn
             int size = memory.size();
-            CircularQueue shuffledMemory = new CircularQueue<T>(size);
-            shuffledMemory.addAll(memory); // This does a deep copy
-            Collections.shuffle(shuffledMemory);
-            Object[] objectArray = shuffledMemory.toArray();
-            Object[] sampleObjectArray = Arrays.copyOfRange(objectArray, size-n, size);
-            return sampleObjectArray;
+            Object[] objectArray = memory.toArray();
+            for (int i = size - 1; i >= size - n; i--) {
+                int j = rnd.nextInt(i + 1);
+                Object temp = objectArray[i];
+                objectArray[i] = objectArray[j];
+                objectArray[j] = temp;
+            }
+            return Arrays.copyOfRange(objectArray, size-n, size);
         }
     }
 
@@ -0,0 +1,218 @@
+package com.robocode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Disk-backed replay store so that experiences survive across battles.
+ * Experiences are fixed-size binary records appended to memory-mapped segment files
+ * <prefix>NNNNNN.seg in a directory. Each segment has a 24 byte header followed by room for
+ * segmentCapacity records:
+ * - Header : magic, version, record size, # of records (written after each record), sequence # (long)
+ * - Record : prev state (4 doubles), curr state (4 doubles), reward (double), prev action (int), steps (int)
+ * The segment files form a ring of at most maxSegments files: when the newest segment is full, a new file
+ * is created until there are maxSegments of them, then the oldest segment is emptied and reused in place
+ * with the next sequence #. Files are never deleted, since a mapped file cannot be deleted on Windows.
+ * Opening an existing store only maps the segments, no record is read until get() is called.
+ * Note: robocode only allows robots to map files in their data directory if the security manager permits it.
+ */
+public class ReplayStore {
+    static final int MAGIC = 0x52504C59;    // "RPLY"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 24;
+    static final int COUNT = 12;            // Header offset of the # of records
+    static final int SEQ = 16;              // Header offset of the sequence #
+    static final int RECORD_SIZE = 80;
+    static final String SUFFIX = ".seg";
+
+    private final File dir;
+    private final String prefix;
+    private final int segmentCapacity;      // # of records per segment
+    private final int maxSegments;          // # of segments retained
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();     // Oldest first
+    private long nextSeq = 0;               // Sequence # of the next segment
+    private int nextFile = 0;               // # in the filename of the next segment file
+
+    // Constructor
+    private ReplayStore(File dir, String prefix, int segmentCapacity, int maxSegments) {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.segmentCapacity = segmentCapacity;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Open the replay store in a directory, mapping the existing segments (oldest first).
+     * @param dir The directory of the segment files (created if missing).
+     * @param prefix Filename prefix of the segment files.
+     * @param segmentCapacity # of records per segment.
+     * @param maxSegments # of segment files, the oldest segment is reused when they are all full.
+     * @return the replay store.
+     * @throws IOException if a segment cannot be mapped or has an unexpected header.
+     */
+    public static ReplayStore open(File dir, String prefix, int segmentCapacity, int maxSegments) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create replay directory " + dir);
+        }
+        ReplayStore store = new ReplayStore(dir, prefix, segmentCapacity, maxSegments);
+
+        File [] files = dir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(SUFFIX));
+        if (files == null) files = new File[0];
+
+        for (File file : files) {
+            MappedByteBuffer segment = map(file, segmentCapacity);
+            if (segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION || segment.getInt(8) != RECORD_SIZE) {
+                throw new IOException("Not a replay segment: " + file);
+            }
+            if (segment.getInt(COUNT) < 0 || segment.getInt(COUNT) > segmentCapacity || segment.getLong(SEQ) < 0) {
+                throw new IOException("Corrupt replay segment: " + file);
+            }
+            store.segments.add(segment);
+            store.nextSeq = Math.max(store.nextSeq, segment.getLong(SEQ) + 1);
+            String number = file.getName().substring(prefix.length(), file.getName().length() - SUFFIX.length());
+            try {
+                store.nextFile = Math.max(store.nextFile, Integer.parseInt(number) + 1);
+            } catch (NumberFormatException e) {
+                throw new IOException("Not a replay segment: " + file);
+            }
+        }
+        store.segments.sort(Comparator.comparingLong(segment -> segment.getLong(SEQ)));
+        store.retain();
+        return store;
+    }
+
+    /**
+     * Map a segment file, creating it with its full size if missing.
+     * @param file The segment file.
+     * @param segmentCapacity # of records per segment.
+     * @return the mapped segment.
+     */
+    private static MappedByteBuffer map(File file, int segmentCapacity) throws IOException {
+        long size = HEADER_SIZE + (long) segmentCapacity * RECORD_SIZE;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() != 0 && channel.size() != size) {
+                throw new IOException("Replay segment size " + channel.size() + " != " + size + ": " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Append an experience to the newest segment, starting a new segment when it is full.
+     * @param exp The experience.
+     */
+    public void append(Experience exp) throws IOException {
+        MappedByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.getInt(COUNT) == segmentCapacity) {
+            segment = nextSegment();
+        }
+
+        int count = segment.getInt(COUNT);
+        int pos = HEADER_SIZE + count * RECORD_SIZE;
+        segment.putDouble(pos, exp.prevState.getXPos());
+        segment.putDouble(pos + 8, exp.prevState.getYPos());
+        segment.putDouble(pos + 16, exp.prevState.getDist());
+        segment.putDouble(pos + 24, exp.prevState.getEnergy());
+        segment.putDouble(pos + 32, exp.currState.getXPos());
+        segment.putDouble(pos + 40, exp.currState.getYPos());
+        segment.putDouble(pos + 48, exp.currState.getDist());
+        segment.putDouble(pos + 56, exp.currState.getEnergy());
+        segment.putDouble(pos + 64, exp.currReward);
+        segment.putInt(pos + 72, exp.prevAction.ordinal());
+        segment.putInt(pos + 76, exp.steps);
+        segment.putInt(COUNT, count + 1);   // Count last, so a partly written record is never read
+    }
+
+    /**
+     * Start the next segment: a new segment file while there are less than maxSegments files,
+     * else the oldest segment emptied in place.
+     * @return the empty segment, now the newest.
+     */
+    private MappedByteBuffer nextSegment() throws IOException {
+        MappedByteBuffer segment;
+        if (segments.size() < maxSegments) {
+            segment = map(new File(dir, String.format("%s%06d%s", prefix, nextFile++, SUFFIX)), segmentCapacity);
+            segment.putInt(0, MAGIC);
+            segment.putInt(4, VERSION);
+            segment.putInt(8, RECORD_SIZE);
+        } else {
+            segment = segments.remove(0);
+        }
+        segment.putInt(COUNT, 0);       // Empty before the new sequence #, so old records are never read as new
+        segment.putLong(SEQ, nextSeq++);
+        segments.add(segment);
+        retain();
+        return segment;
+    }
+
+    /**
+     * Empty the oldest segments beyond the retention cap, e.g. after the cap was lowered.
+     * Their files stay in the ring and are reused first.
+     */
+    private void retain() {
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            segments.get(i).putInt(COUNT, 0);
+        }
+    }
+
+    /**
+     * Return the # of records in the store.
+     * @return # of records.
+     */
+    public int size() {
+        int size = 0;
+        for (ByteBuffer segment : segments) {
+            size += segment.getInt(COUNT);
+        }
+        return size;
+    }
+
+    /**
+     * Read a record.
+     * @param i The record index, 0 = oldest retained record.
+     * @return the experience.
+     * @throws IOException if the record has an action or # of steps out of range (e.g. a corrupt file).
+     */
+    public Experience get(int i) throws IOException {
+        int index = i;
+        for (ByteBuffer segment : segments) {
+            int count = segment.getInt(COUNT);
+            if (i < count) {
+                int pos = HEADER_SIZE + i * RECORD_SIZE;
+                int action = segment.getInt(pos + 72);
+                int steps = segment.getInt(pos + 76);
+                if (action < 0 || action >= MyRobotNN.stateAction.values().length || steps < 1) {
+                    throw new IOException("Corrupt replay record " + index + ": action " + action + ", steps " + steps);
+                }
+                State prevState = new State(segment.getDouble(pos), segment.getDouble(pos + 8),
+                        segment.getDouble(pos + 16), segment.getDouble(pos + 24));
+                State currState = new State(segment.getDouble(pos + 32), segment.getDouble(pos + 40),
+                        segment.getDouble(pos + 48), segment.getDouble(pos + 56));
+                return new Experience(prevState, MyRobotNN.stateAction.values()[action],
+                        segment.getDouble(pos + 64), currState, steps);
+            }
+            i -= count;
+        }
+        throw new IndexOutOfBoundsException("Replay record " + index);
+    }
+
+    /**
+     * Write the newest segment to disk.
+     */
+    public void force() {
+        if (!segments.isEmpty()) segments.get(segments.size() - 1).force();
+    }
+
+    // Get methods
+    public int getNumSegments() { return segments.size(); }
+    public int getSegmentCapacity() { return segmentCapacity; }
+}
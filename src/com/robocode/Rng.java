@@ -0,0 +1,90 @@
+package com.robocode;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Seedable random number streams replacing the global Math.random() / new Random().
+ * - Each stream is a SplittableRandom seeded from the global seed and its stream number, so the
+ *   sequence of a stream only depends on the seed (reproducible runs) and streams do not share state
+ *   (no contention between threads)
+ * - forStream(i) : the stream of worker i, e.g. one per thread of a thread pool
+ * - current()    : the stream of the calling thread, numbered in the order threads first use it
+ *                  (deterministic for a single thread, e.g. the robot or a training loop)
+ * setSeed() restarts all streams; without it the seed is taken from the clock.
+ */
+public class Rng {
+    private static volatile long seed = System.nanoTime();
+    private static volatile int generation = 0;         // Incremented by setSeed() to restart the thread streams
+    private static final AtomicInteger nextThreadStream = new AtomicInteger();
+
+    // Stream of a thread and the generation it was created in
+    private static final class ThreadStream {
+        final int generation;
+        final SplittableRandom random;
+
+        ThreadStream(int generation, SplittableRandom random) {
+            this.generation = generation;
+            this.random = random;
+        }
+    }
+    private static final ThreadLocal<ThreadStream> threadStream = new ThreadLocal<>();
+
+    // No instances
+    private Rng() {
+    }
+
+    /**
+     * Set the global seed and restart all streams.
+     * @param newSeed The seed.
+     */
+    public static synchronized void setSeed(long newSeed) {
+        seed = newSeed;
+        nextThreadStream.set(0);
+        generation++;
+    }
+
+    /**
+     * Return a new generator for a numbered stream of the global seed.
+     * @param stream The stream number, e.g. the worker index.
+     * @return the generator, to be used by one thread only.
+     */
+    public static SplittableRandom forStream(int stream) {
+        // SplittableRandom mixes the seed, so consecutive stream numbers give unrelated sequences
+        return new SplittableRandom(seed + 0x9E3779B97F4A7C15L * (stream + 1L));
+    }
+
+    /**
+     * Return the generator of the calling thread.
+     * @return the generator.
+     */
+    public static SplittableRandom current() {
+        ThreadStream stream = threadStream.get();
+        if (stream == null || stream.generation != generation) {
+            int gen = generation;
+            stream = new ThreadStream(gen, forStream(nextThreadStream.getAndIncrement()));
+            threadStream.set(stream);
+        }
+        return stream.random;
+    }
+
+    /**
+     * Return a uniform random number of the calling thread's stream.
+     * @return a value in {0, 1}.
+     */
+    public static double nextDouble() {
+        return current().nextDouble();
+    }
+
+    /**
+     * Return a uniform random index of the calling thread's stream.
+     * @param bound The number of values.
+     * @return a value in {0..bound-1}.
+     */
+    public static int nextInt(int bound) {
+        return current().nextInt(bound);
+    }
+
+    // Get method
+    public static long getSeed() { return seed; }
+}
@@ -0,0 +1,23 @@
+package com.robocode;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder event emitted by TickProfiler for each decide/learn/save phase of the robot loop.
+ * Enable with e.g. -XX:StartFlightRecording and look for "com.robocode.RobotPhase".
+ */
+@Name("com.robocode.RobotPhase")
+@Label("Robot Phase")
+@Category("Robocode")
+@Description("Latency of a phase of the robot loop")
+public class RobotPhaseEvent extends Event {
+    @Label("Phase")
+    public String phase;
+
+    @Label("Round")
+    public int round;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    public long latency;
+}
@@ -0,0 +1,150 @@
+package com.robocode;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streaming per-round battle statistics.
+ * - Each round record (win, accumulated reward, shots, hits, training time) is kept in a bounded ring
+ *   of primitive arrays, so memory does not grow with the number of rounds
+ * - flush() appends the records recorded since the last flush to an append-only CSV file
+ * - Win rate, average reward and hit rate over the last "window" rounds are maintained in O(1) per round
+ * Adding and removing rewards accumulates rounding errors in the window reward sum (e.g. once a large reward
+ * has left the window), so the sum is recomputed from the ring every recomputeInterval rounds, which keeps
+ * the cost O(1) amortized.
+ */
+public class RoundStats {
+    private final int capacity;     // # of rounds kept in memory
+    private final int window;       // # of rounds of the rolling window (<= capacity)
+    private final int recomputeInterval;    // # of rounds between recomputations of windowReward
+
+    // Ring of round records, round n is stored at n % capacity
+    private final boolean [] win;
+    private final double [] reward;
+    private final int [] shots;
+    private final int [] hits;
+    private final long [] trainNanos;
+
+    private long numRounds = 0;     // # of rounds recorded
+    private long numWins = 0;       // # of rounds won
+    private long numFlushed = 0;    // # of rounds written by flush()
+
+    // Sums over the rolling window
+    private int windowWins = 0;
+    private double windowReward = 0;
+    private long windowShots = 0;
+    private long windowHits = 0;
+    private int sinceRecompute = 0; // # of rounds since windowReward was recomputed
+
+    // Constructor
+    public RoundStats(int capacity, int window) {
+        if (window < 1 || window > capacity) {
+            throw new IllegalArgumentException("Window must be between 1 and capacity");
+        }
+        this.capacity = capacity;
+        this.window = window;
+        recomputeInterval = window;
+
+        win = new boolean[capacity];
+        reward = new double[capacity];
+        shots = new int[capacity];
+        hits = new int[capacity];
+        trainNanos = new long[capacity];
+    }
+
+    /**
+     * Record the statistics of a round.
+     * @param won true if the round is won.
+     * @param accumReward accumulated reward of the round.
+     * @param numShots # of bullets fired.
+     * @param numHits # of bullets hitting the enemy.
+     * @param nanos time spent on training in the round.
+     */
+    public void record(boolean won, double accumReward, int numShots, int numHits, long nanos) {
+        // Remove the round leaving the window before its slot may be overwritten
+        if (numRounds >= window) {
+            int old = (int) ((numRounds - window) % capacity);
+            windowWins -= win[old] ? 1 : 0;
+            windowReward -= reward[old];
+            windowShots -= shots[old];
+            windowHits -= hits[old];
+        }
+
+        int i = (int) (numRounds % capacity);
+        win[i] = won;
+        reward[i] = accumReward;
+        shots[i] = numShots;
+        hits[i] = numHits;
+        trainNanos[i] = nanos;
+
+        windowWins += won ? 1 : 0;
+        windowReward += accumReward;
+        windowShots += numShots;
+        windowHits += numHits;
+
+        numRounds++;
+        if (won) numWins++;
+
+        if (++sinceRecompute >= recomputeInterval) {
+            recompute();
+        }
+    }
+
+    /**
+     * Recompute the reward sum of the window from the ring, discarding the rounding errors of the
+     * incremental updates.
+     */
+    private void recompute() {
+        double sum = 0.0;
+        for (long n = Math.max(0, numRounds - window); n < numRounds; n++) {
+            sum += reward[(int) (n % capacity)];
+        }
+        windowReward = sum;
+        sinceRecompute = 0;
+    }
+
+    /**
+     * Write the CSV header line.
+     * @param out The output file.
+     */
+    public static void writeHeader(Writer out) throws IOException {
+        out.write("Round #, Win, Accum reward, Shots, Hits, Training time (ms),\n");
+    }
+
+    /**
+     * Append the records recorded since the last flush to the output file.
+     * Records already overwritten in the ring (more than capacity rounds since the last flush) are skipped.
+     * @param out The output file.
+     * @return # of records written.
+     */
+    public int flush(Writer out) throws IOException {
+        long first = Math.max(numFlushed, numRounds - capacity);
+        StringBuilder line = new StringBuilder(64);
+        for (long n = first; n < numRounds; n++) {
+            int i = (int) (n % capacity);
+            line.setLength(0);
+            line.append(n + 1).append(", ")
+                    .append(win[i] ? 1 : 0).append(", ")
+                    .append(reward[i]).append(", ")
+                    .append(shots[i]).append(", ")
+                    .append(hits[i]).append(", ")
+                    .append(trainNanos[i] / 1e6).append(",\n");
+            out.append(line);
+        }
+        out.flush();
+        int written = (int) (numRounds - first);
+        numFlushed = numRounds;
+        return written;
+    }
+
+    // Rolling window statistics
+    public double windowWinRate() { return numRounds == 0 ? 0 : (double) windowWins / Math.min(numRounds, window); }
+    public double windowAvgReward() { return numRounds == 0 ? 0 : windowReward / Math.min(numRounds, window); }
+    public double windowHitRate() { return windowShots == 0 ? 0 : (double) windowHits / windowShots; }
+
+    // Get methods
+    public long getNumRounds() { return numRounds; }
+    public long getNumWins() { return numWins; }
+    public long getNumFlushed() { return numFlushed; }
+    public int getWindow() { return window; }
+}
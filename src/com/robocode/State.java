@@ -21,6 +21,11 @@ public class State {
         this.energy = energy;
     }
 
+    // Copy constructor
+    public State (State s) {
+        this(s.xPos, s.yPos, s.dist, s.energy);
+    }
+
     // Get methods
     public double getXPos() {
         return xPos;
@@ -0,0 +1,216 @@
+package com.robocode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Successive-halving search of the NN hyper-parameters (learning rate, momentum, # of hidden nodes)
+ * on the LUT training data of LUTTrain, instead of training every configuration to convergence:
+ * - Rung 0 : all configurations are trained for minEpochs epochs, in parallel on a thread pool
+ * - Rung r : the best 1/eta of the configurations by validation RMS are trained further up to
+ *            minEpochs * eta^r epochs, the others are stopped; the pool threads are freed for the survivors
+ * - The search stops when one configuration is left
+ * Between rungs each configuration is checkpointed to <checkpointDir>/config_NNN.dat (binary weight file
+ * with the momentum history, see NeuralNet.saveCheckpoint()) and reloaded by the next rung, so no net is
+ * kept in memory between rungs and a survivor continues as if its training had not been interrupted.
+ */
+public class SuccessiveHalving {
+    /**
+     * A configuration and its progress
+     */
+    public static class Config {
+        int id;
+        double learningRate;
+        double momentumTerm;
+        int numHidden;
+        int epochs = 0;                 // # of epochs trained so far
+        double validError = Double.NaN; // Validation RMS error after the last rung
+        List<Double> rungErrors = new ArrayList<>();    // Validation RMS error after each rung
+        File checkpoint;                // Weights after the last rung
+
+        @Override
+        public String toString() {
+            return String.format("#%d lr=%.4f momentum=%.3f hidden=%d", id, learningRate, momentumTerm, numHidden);
+        }
+    }
+
+    /**
+     * Draw configurations at random: learning rate log-uniform in {0.01, 0.5}, momentum in {0, 0.9},
+     * # of hidden nodes in {2..20}.
+     * @param numConfigs # of configurations.
+     * @param rnd The random number generator.
+     * @return the configurations.
+     */
+    public static Config [] sample(int numConfigs, SplittableRandom rnd) {
+        Config [] configs = new Config[numConfigs];
+        for (int c = 0; c < numConfigs; c++) {
+            Config config = new Config();
+            config.id = c;
+            config.learningRate = Math.exp(Math.log(0.01) + rnd.nextDouble() * (Math.log(0.5) - Math.log(0.01)));
+            config.momentumTerm = rnd.nextDouble() * 0.9;
+            config.numHidden = 2 + rnd.nextInt(19);
+            configs[c] = config;
+        }
+        return configs;
+    }
+
+    /**
+     * Run successive halving over the configurations.
+     * @param configs The configurations (updated with their progress).
+     * @param input array of input vectors, rows 0..numFit-1 are trained, numFit..n-1 validate (read only).
+     * @param output array of expected outputs (read only).
+     * @param numFit number of training rows.
+     * @param n number of rows in use.
+     * @param minEpochs epochs of rung 0 (at least 1).
+     * @param eta reduction factor (keep 1/eta of the configurations, eta times the epochs per rung), at least 2.
+     * @param checkpointDir directory of the checkpoint files.
+     * @param numThreads number of threads.
+     * @return all configurations, the ones that reached the last rung first, then by validation error.
+     *         The validation error of each configuration after each rung it reached is in its rungErrors.
+     */
+    public static Config [] search(Config [] configs, double [][] input, double [] output, int numFit, int n,
+                                   int minEpochs, int eta, File checkpointDir, int numThreads) throws Exception {
+        if (eta < 2 || minEpochs < 1) {
+            // eta = 1 would never stop (no configuration dropped, same budget), eta = 0 divides by 0
+            throw new IllegalArgumentException("Need eta >= 2 and minEpochs >= 1, got eta = " + eta +
+                    ", minEpochs = " + minEpochs);
+        }
+        if (!checkpointDir.isDirectory() && !checkpointDir.mkdirs()) {
+            throw new IOException("Cannot create checkpoint directory " + checkpointDir);
+        }
+        Comparator<Config> ranking = Comparator.comparingInt((Config c) -> -c.epochs)
+                .thenComparingDouble(c -> c.validError);
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Config> survivors = new ArrayList<>(Arrays.asList(configs));
+            int budget = minEpochs;
+            while (true) {
+                final int epochs = budget;
+                List<Future<?>> futures = new ArrayList<>();
+                for (Config config : survivors) {
+                    futures.add(executor.submit(() -> {
+                        train(config, input, output, numFit, n, epochs, checkpointDir);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                survivors.sort(ranking);
+                if (survivors.size() == 1) break;
+                survivors = new ArrayList<>(survivors.subList(0, Math.max(1, survivors.size() / eta)));
+                budget *= eta;
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Config [] ranked = configs.clone();
+        Arrays.sort(ranked, ranking);
+        return ranked;
+    }
+
+    /**
+     * Resume a configuration from its checkpoint (weights and momentum history) or initialize it,
+     * train it up to a number of epochs, measure its validation error and write its checkpoint.
+     * @param config The configuration.
+     * @param epochs The total # of epochs of the rung.
+     */
+    static void train(Config config, double [][] input, double [] output, int numFit, int n, int epochs,
+                      File checkpointDir) throws IOException {
+        NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, input[0].length, config.numHidden,
+                config.learningRate, config.momentumTerm, -1, 1);
+        if (config.checkpoint == null) {
+            nn.initializeWeights(Rng.forStream(1 + config.id));
+            config.checkpoint = new File(checkpointDir, String.format("config_%03d.dat", config.id));
+        } else {
+            nn.load(config.checkpoint);
+        }
+
+        for (; config.epochs < epochs; config.epochs++) {
+            for (int i = 0; i < numFit; i++) {
+                nn.train(input[i], output[i]);
+            }
+        }
+        config.validError = LUTTrain.rmsError(nn, input, output, numFit, n);
+        config.rungErrors.add(config.validError);
+
+        try (OutputStream out = new FileOutputStream(config.checkpoint)) {
+            nn.saveCheckpoint(out);
+        }
+    }
+
+    /**
+     * Print each rung of a search: its # of configurations and epochs and its best validation error.
+     * @param ranked The configurations returned by search().
+     * @param minEpochs epochs of rung 0.
+     * @param eta reduction factor of the search.
+     */
+    static void printRungs(Config [] ranked, int minEpochs, int eta) {
+        int epochs = minEpochs;
+        for (int rung = 0; rung < ranked[0].rungErrors.size(); rung++) {
+            Config best = null;
+            int count = 0;
+            for (Config config : ranked) {
+                if (config.rungErrors.size() > rung) {
+                    count++;
+                    if (best == null || config.rungErrors.get(rung) < best.rungErrors.get(rung)) best = config;
+                }
+            }
+            System.out.printf("Rung %d: %d configs, %d epochs, best validation RMS = %.6f (%s)%n",
+                    rung, count, epochs, best.rungErrors.get(rung), best);
+            epochs *= eta;
+        }
+    }
+
+    /**
+     * Search the hyper-parameters on the LUT file "luttest.txt" (see LUTTrain.load()).
+     * @param args Optional: # of configurations (default 27), epochs of rung 0 (default 100), eta (default 3),
+     *             checkpoint directory (default "sh_checkpoints"), seed
+     */
+    public static void main(String[] args) {
+        int numConfigs = args.length > 0 ? Integer.parseInt(args[0]) : 27;
+        int minEpochs = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int eta = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        File checkpointDir = new File(args.length > 3 ? args[3] : "sh_checkpoints");
+        if (args.length > 4) Rng.setSeed(Long.parseLong(args[4]));
+        double validFraction = 0.2;
+
+        int maxTrainSet = 8 * 6 * 4 * 4 * 5;
+        double [][] trainInput = new double[maxTrainSet][5];
+        double [] trainOutput = new double[maxTrainSet];
+        int numTrainSet = 0;
+        try {
+            numTrainSet = LUTTrain.load(trainInput, trainOutput);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        LUTTrain.shuffle(trainInput, trainOutput, numTrainSet);
+        int numFitSet = numTrainSet - (int) (numTrainSet * validFraction);
+
+        long startTime = System.nanoTime();
+        try {
+            Config [] ranked = search(sample(numConfigs, Rng.forStream(0)), trainInput, trainOutput, numFitSet,
+                    numTrainSet, minEpochs, eta, checkpointDir, Runtime.getRuntime().availableProcessors());
+            printRungs(ranked, minEpochs, eta);
+            System.out.printf("Best %s: validation RMS = %.6f after %d epochs, weights in %s%n", ranked[0],
+                    ranked[0].validError, ranked[0].epochs, ranked[0].checkpoint);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        System.out.printf("Search time %.1f s%n", (System.nanoTime() - startTime) / 1e9);
+    }
+}
@@ -0,0 +1,95 @@
+package com.robocode;
+
+import jdk.jfr.EventType;
+
+import java.io.PrintStream;
+
+/**
+ * Per-phase latency instrumentation of the robot loop.
+ * - DECIDE : action selection (explore or greedy)
+ * - LEARN  : Q update and replay training
+ * - SAVE   : writing weights and statistics to file
+ * Each phase has an allocation-free LatencyHistogram. When a flight recording is running,
+ * a RobotPhaseEvent is also committed for each phase.
+ * Skipped turns reported by robocode are counted so that they can be related to the latencies.
+ */
+public class TickProfiler {
+    public enum Phase {
+        DECIDE,
+        LEARN,
+        SAVE
+    }
+
+    private final LatencyHistogram [] histograms = new LatencyHistogram[Phase.values().length];
+    private long skippedTurns = 0;
+    private int round = 0;
+
+    // JFR event type, null if JFR is not available (e.g. blocked by the robocode security manager)
+    private EventType eventType = null;
+
+    // Constructor
+    public TickProfiler(boolean jfrEvents) {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        if (jfrEvents) {
+            try {
+                eventType = EventType.getEventType(RobotPhaseEvent.class);
+            } catch (Throwable e) {
+                eventType = null;
+            }
+        }
+    }
+
+    /**
+     * Return the start time of a phase.
+     * @return current time in nanoseconds.
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the latency of a phase started at startTime.
+     * @param phase The phase.
+     * @param startTime The time returned by begin().
+     * @return the latency in nanoseconds.
+     */
+    public long end(Phase phase, long startTime) {
+        long nanos = System.nanoTime() - startTime;
+        histograms[phase.ordinal()].record(nanos);
+
+        if (eventType != null && eventType.isEnabled()) {
+            RobotPhaseEvent event = new RobotPhaseEvent();
+            event.phase = phase.name();
+            event.round = round;
+            event.latency = nanos;
+            event.commit();
+        }
+        return nanos;
+    }
+
+    /**
+     * Count a turn skipped by robocode because the robot took too long.
+     */
+    public void skippedTurn() {
+        skippedTurns++;
+    }
+
+    /**
+     * Print the latency percentiles of all phases.
+     * @param out The output stream.
+     */
+    public void dump(PrintStream out) {
+        out.println("Phase, Count, Mean (us), P50 (us), P90 (us), P99 (us), P99.9 (us), Max (us),");
+        for (Phase phase : Phase.values()) {
+            histograms[phase.ordinal()].print(out, phase.name());
+        }
+        out.println("Skipped turns, " + skippedTurns + ",");
+    }
+
+    // Get and set methods
+    public LatencyHistogram getHistogram(Phase phase) { return histograms[phase.ordinal()]; }
+    public long getSkippedTurns() { return skippedTurns; }
+    public void setRound(int round) { this.round = round; }
+}
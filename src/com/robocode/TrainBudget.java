@@ -0,0 +1,97 @@
+package com.robocode;
+
+/**
+ * Time budget for training within one robocode turn.
+ * - startTick() : start of the turn, the deadline is fraction * scale * turn budget from now
+ * - plan()      : # of samples wanted this turn (new samples + samples deferred by earlier turns)
+ * - hasTime()   : true if one more sample fits before the deadline, i.e. if assembling and training all
+ *                 samples so far plus one (at the average cost per sample) ends before it
+ * - trained()   : update the average cost per sample (EWMA) and defer the samples that did not fit
+ * - skippedTurn() : halve the scale of the budget (multiplicative decrease); the scale recovers
+ *   additively on every turn without a skipped turn
+ */
+public class TrainBudget {
+    private final long turnBudgetNanos;     // Time of a robocode turn
+    private final double fraction;          // Fraction of the turn that can be used for training
+    private final int minSamples;           // # of samples trained each turn even if out of time
+    private final int maxDeferred;          // Max # of samples carried over to later turns
+
+    private final double costWeight = 0.1;  // EWMA weight of the latest cost per sample
+    private final double minScale = 0.05;   // Lowest scale after skipped turns
+    private final double recovery = 0.02;   // Scale recovered per turn without skipped turn
+
+    private double scale = 1.0;             // Scale of the budget, reduced by skipped turns
+    private double costNanos = 0.0;         // Average cost per sample
+    private int deferred = 0;               // # of samples deferred to later turns
+    private long deadline = 0;              // End of the training time of the current turn
+    private long skippedTurns = 0;
+
+    // Constructor
+    public TrainBudget(long turnBudgetNanos, double fraction, int minSamples, int maxDeferred) {
+        this.turnBudgetNanos = turnBudgetNanos;
+        this.fraction = fraction;
+        this.minSamples = minSamples;
+        this.maxDeferred = maxDeferred;
+    }
+
+    /**
+     * Start the training time of a turn.
+     */
+    public void startTick() {
+        startTick(System.nanoTime());
+    }
+
+    void startTick(long now) {
+        deadline = now + (long) (turnBudgetNanos * fraction * scale);
+        scale = Math.min(1.0, scale + recovery);
+    }
+
+    /**
+     * Return the # of samples to train this turn if time allows.
+     * @param newSamples # of samples wanted by the current turn.
+     * @return newSamples plus the samples deferred by earlier turns.
+     */
+    public int plan(int newSamples) {
+        return newSamples + deferred;
+    }
+
+    /**
+     * Return true if another sample can be trained this turn.
+     * The time of the whole training is predicted from its start, since the samples are only
+     * assembled one by one and then trained together after the last check.
+     * @param trained # of samples assembled so far this turn.
+     * @param startNanos System.nanoTime() at the start of the training of the turn.
+     * @return true if below minSamples or if trained + 1 samples fit before the deadline.
+     */
+    public boolean hasTime(int trained, long startNanos) {
+        return trained < minSamples || startNanos + (long) ((trained + 1) * costNanos) <= deadline;
+    }
+
+    /**
+     * Update the cost per sample and the deferred samples at the end of the training of a turn.
+     * @param planned # of samples returned by plan().
+     * @param trained # of samples actually trained.
+     * @param nanos time spent assembling and training the samples.
+     */
+    public void trained(int planned, int trained, long nanos) {
+        if (trained > 0) {
+            double cost = (double) nanos / trained;
+            costNanos = costNanos == 0.0 ? cost : costNanos + costWeight * (cost - costNanos);
+        }
+        deferred = Math.min(maxDeferred, planned - trained);
+    }
+
+    /**
+     * Shrink the budget after robocode skipped a turn of the robot.
+     */
+    public void skippedTurn() {
+        skippedTurns++;
+        scale = Math.max(minScale, scale * 0.5);
+    }
+
+    // Get methods
+    public double getScale() { return scale; }
+    public double getCostNanos() { return costNanos; }
+    public int getDeferred() { return deferred; }
+    public long getSkippedTurns() { return skippedTurns; }
+}
@@ -0,0 +1,131 @@
+package com.robocode;
+
+/**
+ * Training controller for the neural net training loop in LUTTrain.
+ * Decides after each epoch whether training should stop and why:
+ * - CONVERGED  : RMS error of the training set is below the acceptable error
+ * - MAX_EPOCHS : the epoch cap is reached
+ * - PLATEAU    : the monitored error (validation if present, otherwise training)
+ *                has not improved by minDelta for "patience" epochs
+ * It also provides the learning rate for each epoch according to a schedule.
+ */
+public class TrainController {
+    public enum StopReason {
+        NONE,
+        CONVERGED,
+        MAX_EPOCHS,
+        PLATEAU
+    }
+
+    public enum LRSchedule {
+        CONSTANT,       // lr = baseRate
+        STEP,           // lr = baseRate * decayRate ^ floor(epoch / decayStep)
+        EXPONENTIAL     // lr = baseRate * decayRate ^ (epoch / decayStep)
+    }
+
+    /**
+     * Parameters of the controller
+     */
+    private double acceptError;     // Stop when training RMS error <= acceptError
+    private int maxEpochs;          // Epoch cap (0 if no cap)
+    private int patience;           // # of epochs without improvement before plateau stop (0 if disabled)
+    private double minDelta;        // Minimum decrease of monitored error to count as improvement
+    private LRSchedule schedule;    // Learning rate schedule
+    private double decayRate;       // Learning rate decay factor
+    private int decayStep;          // # of epochs per decay step
+
+    /**
+     * Progress of the current trial
+     */
+    private StopReason stopReason = StopReason.NONE;
+    private double bestError = Double.MAX_VALUE;
+    private int bestEpoch = 0;
+    private int lastEpoch = 0;
+
+    // Constructor
+    public TrainController(
+            double acceptError,
+            int maxEpochs,
+            int patience,
+            double minDelta,
+            LRSchedule schedule,
+            double decayRate,
+            int decayStep) {
+        this.acceptError = acceptError;
+        this.maxEpochs = maxEpochs;
+        this.patience = patience;
+        this.minDelta = minDelta;
+        this.schedule = schedule;
+        this.decayRate = decayRate;
+        this.decayStep = Math.max(1, decayStep);
+    }
+
+    /**
+     * Return a new controller with the same parameters and no progress, e.g. one per concurrent trial.
+     * @return the copy.
+     */
+    public TrainController copy() {
+        return new TrainController(acceptError, maxEpochs, patience, minDelta, schedule, decayRate, decayStep);
+    }
+
+    /**
+     * Reset the progress for a new trial.
+     */
+    public void reset() {
+        stopReason = StopReason.NONE;
+        bestError = Double.MAX_VALUE;
+        bestEpoch = 0;
+        lastEpoch = 0;
+    }
+
+    /**
+     * Return the learning rate to be used for an epoch.
+     * @param epoch The epoch number (starting from 1).
+     * @param baseRate The initial learning rate.
+     * @return learning rate of the epoch.
+     */
+    public double learningRateFor(int epoch, double baseRate) {
+        switch (schedule) {
+            case STEP:
+                return baseRate * Math.pow(decayRate, (epoch - 1) / decayStep);
+            case EXPONENTIAL:
+                return baseRate * Math.pow(decayRate, (double) (epoch - 1) / decayStep);
+            default:
+                return baseRate;
+        }
+    }
+
+    /**
+     * Record the errors of an epoch and decide whether to stop training.
+     * @param epoch The epoch number (starting from 1).
+     * @param trainError RMS error of the training set.
+     * @param validError RMS error of the validation set (NaN if there is no validation set).
+     * @return true if training should stop, see getStopReason() for the reason.
+     */
+    public boolean update(int epoch, double trainError, double validError) {
+        lastEpoch = epoch;
+
+        // Plateau detection on validation error if present, otherwise on training error
+        double monitored = Double.isNaN(validError) ? trainError : validError;
+        if (monitored < bestError - minDelta) {
+            bestError = monitored;
+            bestEpoch = epoch;
+        }
+
+        if (trainError <= acceptError) {
+            stopReason = StopReason.CONVERGED;
+        } else if (maxEpochs > 0 && epoch >= maxEpochs) {
+            stopReason = StopReason.MAX_EPOCHS;
+        } else if (patience > 0 && epoch - bestEpoch >= patience) {
+            stopReason = StopReason.PLATEAU;
+        }
+
+        return stopReason != StopReason.NONE;
+    }
+
+    // Get methods
+    public StopReason getStopReason() { return stopReason; }
+    public double getBestError() { return bestError; }
+    public int getBestEpoch() { return bestEpoch; }
+    public int getLastEpoch() { return lastEpoch; }
+}
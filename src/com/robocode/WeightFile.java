@@ -0,0 +1,351 @@
+package com.robocode;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary weight file of a layered neural net.
+ * Layout (big-endian):
+ * - int    magic "RLNN"
+ * - int    format version
+ * - int    element size in bytes (8 = double, 4 = float)
+ * - int    number of layers L (including the input layer)
+ * - int[L] number of neurons of each layer (excluding bias)
+ * - int[L-1] activation function (ActFnType ordinal) of each non-input layer
+ * - int    number of weights
+ * - weights, layer by layer, neuron by neuron, bias weight last
+ * - sections (version 2): int tag, int length in bytes, payload; optional state of the net
+ *   other than the weights, e.g. SECTION_NORMALIZER
+ * - int    CRC32 checksum of all the preceding bytes
+ * Version 1 files (no sections) are still read.
+ */
+public class WeightFile {
+    public static final int MAGIC = 0x524C4E4E;  // "RLNN"
+    public static final int VERSION = 2;
+    public static final int SECTION_NORMALIZER = 1;  // InputNormalizer statistics
+    public static final int SECTION_ONE_HOT = 2;     // # of dense inputs and # of categories of a one-hot input
+    public static final int SECTION_MOMENTUM = 3;    // Old weights of the momentum term (training checkpoints only)
+    public static final int SECTION_BOUNDS = 4;      // Lower and upper bound of CUSTOM activation functions
+    static final int SECTION_HEADER_SIZE = 8;
+    public static final int DOUBLE = 8;          // Element size of double weights
+    public static final int FLOAT = 4;           // Element size of float weights
+
+    private int [] layerSizes;
+    private NeuralNet.ActFnType [] actFns;
+    private int elementSize;
+    private int numWeights;
+    private DoubleBuffer doubleData;    // Weights if element size is DOUBLE (null otherwise)
+    private FloatBuffer floatData;      // Weights if element size is FLOAT (null otherwise)
+    private final Map<Integer, ByteBuffer> sections = new HashMap<>();
+
+    // Constructor used by read()
+    private WeightFile(int [] layerSizes, NeuralNet.ActFnType [] actFns, int elementSize, int numWeights, ByteBuffer data) {
+        this.layerSizes = layerSizes;
+        this.actFns = actFns;
+        this.elementSize = elementSize;
+        this.numWeights = numWeights;
+        if (elementSize == DOUBLE) {
+            doubleData = data.asDoubleBuffer();
+        } else {
+            floatData = data.asFloatBuffer();
+        }
+    }
+
+    /**
+     * Allocate a buffer large enough for the whole file and write the header into it.
+     * The caller puts the weights into the buffer and then calls finish().
+     * @param layerSizes Number of neurons of each layer (excluding bias).
+     * @param actFns Activation function of each non-input layer.
+     * @param elementSize Element size in bytes of the weights.
+     * @param numWeights Number of weights.
+     * @return buffer positioned at the first weight.
+     */
+    public static ByteBuffer begin(int [] layerSizes, NeuralNet.ActFnType [] actFns, int elementSize, int numWeights) {
+        return begin(layerSizes, actFns, elementSize, numWeights, 0);
+    }
+
+    /**
+     * Allocate a buffer large enough for the whole file including sections and write the header into it.
+     * The caller puts the weights, then each section with putSection() and its payload, and calls finish().
+     * @param layerSizes Number of neurons of each layer (excluding bias).
+     * @param actFns Activation function of each non-input layer.
+     * @param elementSize Element size in bytes of the weights.
+     * @param numWeights Number of weights.
+     * @param sectionBytes Total size of the sections, see sectionSize().
+     * @return buffer positioned at the first weight.
+     */
+    public static ByteBuffer begin(int [] layerSizes, NeuralNet.ActFnType [] actFns, int elementSize, int numWeights,
+                                   int sectionBytes) {
+        int headerSize = 4 * (5 + layerSizes.length + actFns.length);
+        ByteBuffer buf = ByteBuffer.allocate(headerSize + numWeights * elementSize + sectionBytes + 4);
+
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(elementSize);
+        buf.putInt(layerSizes.length);
+        for (int size : layerSizes) buf.putInt(size);
+        for (NeuralNet.ActFnType actFn : actFns) buf.putInt(actFn.ordinal());
+        buf.putInt(numWeights);
+        return buf;
+    }
+
+    /**
+     * Return the size of a section in the file.
+     * @param payloadBytes The size of the section payload.
+     * @return the size including the section header.
+     */
+    public static int sectionSize(int payloadBytes) {
+        return SECTION_HEADER_SIZE + payloadBytes;
+    }
+
+    /**
+     * Write a section header after the weights (or the previous section); the caller then puts the payload.
+     * @param buf The buffer returned by begin().
+     * @param tag The section tag.
+     * @param payloadBytes The size of the payload.
+     */
+    public static void putSection(ByteBuffer buf, int tag, int payloadBytes) {
+        buf.putInt(tag);
+        buf.putInt(payloadBytes);
+    }
+
+    /**
+     * Return the size of the bounds section of a net, which is only written if an activation function is CUSTOM.
+     * @param actFns Activation function of each non-input layer.
+     * @return the size of the section, 0 if none.
+     */
+    public static int boundsSize(NeuralNet.ActFnType [] actFns) {
+        return Arrays.asList(actFns).contains(NeuralNet.ActFnType.CUSTOM) ? sectionSize(2 * DOUBLE) : 0;
+    }
+
+    /**
+     * Write the bounds section if an activation function is CUSTOM, since the structure only holds the
+     * activation function types.
+     * @param buf The buffer returned by begin().
+     * @param actFns Activation function of each non-input layer.
+     * @param asymA The lower bound of the CUSTOM activation function.
+     * @param asymB The upper bound of the CUSTOM activation function.
+     */
+    public static void putBounds(ByteBuffer buf, NeuralNet.ActFnType [] actFns, double asymA, double asymB) {
+        if (boundsSize(actFns) == 0) return;
+        putSection(buf, SECTION_BOUNDS, 2 * DOUBLE);
+        buf.putDouble(asymA);
+        buf.putDouble(asymB);
+    }
+
+    /**
+     * Append the checksum and write the whole buffer to the output stream in one write.
+     * @param buf The buffer returned by begin() after all weights have been put.
+     * @param out The output stream.
+     * @throws IOException if the buffer is not completely filled or the write fails.
+     */
+    public static void finish(ByteBuffer buf, OutputStream out) throws IOException {
+        if (buf.remaining() != 4) {
+            throw new IOException("Weight buffer not completely filled: " + (buf.remaining() - 4) + " bytes left");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        out.write(buf.array(), 0, buf.position());
+        out.flush();
+    }
+
+    /**
+     * Return true if the file starts with the magic number of a binary weight file.
+     * @param file The weight file.
+     * @return true if binary weight file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static boolean isWeightFile(File file) throws IOException {
+        if (file.length() < 4) return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Read the whole file with a single bulk read and validate its header and checksum.
+     * @param file The weight file.
+     * @return the weight file positioned at the first weight.
+     * @throws IOException if the file is not a valid weight file.
+     */
+    public static WeightFile read(File file) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 24 || size > Integer.MAX_VALUE) {
+                throw new IOException(file + ": invalid weight file size " + size);
+            }
+            buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) throw new EOFException(file.toString());
+            }
+            buf.flip();
+        }
+
+        // Validate checksum of everything before the last 4 bytes
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.limit() - 4);
+        if ((int) crc.getValue() != buf.getInt(buf.limit() - 4)) {
+            throw new IOException(file + ": checksum mismatch");
+        }
+
+        try {
+            if (buf.getInt() != MAGIC) throw new IOException(file + ": not a weight file");
+            int version = buf.getInt();
+            if (version != 1 && version != VERSION) throw new IOException(file + ": unsupported version " + version);
+            int elementSize = buf.getInt();
+            if (elementSize != DOUBLE && elementSize != FLOAT) throw new IOException(file + ": unsupported element size " + elementSize);
+
+            int numLayers = buf.getInt();
+            if (numLayers < 2) throw new IOException(file + ": invalid number of layers " + numLayers);
+            int [] layerSizes = new int[numLayers];
+            for (int i = 0; i < numLayers; i++) layerSizes[i] = buf.getInt();
+            NeuralNet.ActFnType [] actFns = new NeuralNet.ActFnType[numLayers - 1];
+            for (int i = 0; i < actFns.length; i++) actFns[i] = NeuralNet.ActFnType.values()[buf.getInt()];
+
+            int numWeights = buf.getInt();
+            buf.limit(buf.limit() - 4);     // Exclude checksum
+            long weightBytes = (long) numWeights * elementSize;
+            if (version == 1 ? weightBytes != buf.remaining() : weightBytes > buf.remaining()) {
+                throw new IOException(file + ": expected " + numWeights + " weights");
+            }
+            ByteBuffer data = buf.slice();
+            data.limit((int) weightBytes);
+            buf.position(buf.position() + (int) weightBytes);
+            WeightFile weightFile = new WeightFile(layerSizes, actFns, elementSize, numWeights, data);
+
+            while (buf.hasRemaining()) {
+                int tag = buf.getInt();
+                int length = buf.getInt();
+                if (length < 0 || length > buf.remaining()) {
+                    throw new IOException(file + ": invalid section " + tag + " length " + length);
+                }
+                ByteBuffer section = buf.slice();
+                section.limit(length);
+                buf.position(buf.position() + length);
+                weightFile.sections.put(tag, section);
+            }
+            return weightFile;
+        } catch (RuntimeException e) {
+            throw new IOException(file + ": corrupted header", e);
+        }
+    }
+
+    /**
+     * Validate the structure of the file against the structure of a neural net.
+     * @param expectedSizes Number of neurons of each layer (excluding bias).
+     * @param expectedActFns Activation function of each non-input layer.
+     * @throws IOException if the structures do not match.
+     */
+    public void expectStructure(int [] expectedSizes, NeuralNet.ActFnType [] expectedActFns) throws IOException {
+        if (!Arrays.equals(layerSizes, expectedSizes)) {
+            throw new IOException("Layer sizes " + Arrays.toString(layerSizes) +
+                    " do not match neural net " + Arrays.toString(expectedSizes));
+        }
+        if (!Arrays.equals(actFns, expectedActFns)) {
+            throw new IOException("Activation functions " + Arrays.toString(actFns) +
+                    " do not match neural net " + Arrays.toString(expectedActFns));
+        }
+    }
+
+    /**
+     * Validate that the file has no section the neural net cannot restore, since the weights alone would
+     * then compute a different function (e.g. weights trained on normalized inputs).
+     * @param supportedTags The section tags restored by the neural net.
+     * @throws IOException if the file has another section.
+     */
+    public void expectSections(int... supportedTags) throws IOException {
+        for (int tag : sections.keySet()) {
+            boolean supported = false;
+            for (int supportedTag : supportedTags) {
+                supported |= tag == supportedTag;
+            }
+            if (!supported) throw new IOException("Weight file section " + tag + " not supported by neural net");
+        }
+    }
+
+    /**
+     * Return the bounds of the CUSTOM activation functions.
+     * @return {lower bound, upper bound}, or null if the file has no bounds section (e.g. saved before bounds
+     *         were written), in which case the net keeps its own bounds.
+     * @throws IOException if the section is invalid.
+     */
+    public double [] getBounds() throws IOException {
+        ByteBuffer section = getSection(SECTION_BOUNDS);
+        if (section == null) return null;
+        if (section.remaining() != 2 * DOUBLE) {
+            throw new IOException("Bounds section length " + section.remaining() + " != " + 2 * DOUBLE);
+        }
+        double [] bounds = {section.getDouble(), section.getDouble()};
+        if (!(bounds[0] < bounds[1])) {
+            throw new IOException("Invalid activation bounds " + Arrays.toString(bounds));
+        }
+        return bounds;
+    }
+
+    /**
+     * Return the payload of a section.
+     * @param tag The section tag.
+     * @return the payload, or null if the file has no such section.
+     */
+    public ByteBuffer getSection(int tag) {
+        ByteBuffer section = sections.get(tag);
+        return section == null ? null : section.duplicate();
+    }
+
+    /**
+     * Read the next weights into an array with a bulk get, converting the precision if needed.
+     * @param dst The weight array to be filled.
+     */
+    public void get(double [] dst) {
+        if (doubleData != null) {
+            doubleData.get(dst);
+        } else {
+            for (int i = 0; i < dst.length; i++) dst[i] = floatData.get();
+        }
+    }
+
+    /**
+     * Read the next weights into an array with a bulk get, converting the precision if needed.
+     * @param dst The weight array to be filled.
+     */
+    public void get(float [] dst) {
+        if (floatData != null) {
+            floatData.get(dst);
+        } else {
+            for (int i = 0; i < dst.length; i++) dst[i] = (float) doubleData.get();
+        }
+    }
+
+    /**
+     * Read the next weights into a buffer (e.g. off-heap) with a bulk put, converting the precision if needed.
+     * @param dst The weight buffer to be filled from index 0 to its capacity (its position is not changed).
+     */
+    public void get(DoubleBuffer dst) {
+        DoubleBuffer out = dst.duplicate();
+        out.clear();
+        if (doubleData != null) {
+            DoubleBuffer src = doubleData.slice();
+            src.limit(out.capacity());
+            out.put(src);
+            doubleData.position(doubleData.position() + out.capacity());
+        } else {
+            while (out.hasRemaining()) out.put(floatData.get());
+        }
+    }
+
+    // Get methods
+    public int [] getLayerSizes() { return layerSizes; }
+    public NeuralNet.ActFnType [] getActFns() { return actFns; }
+    public int getElementSize() { return elementSize; }
+    public int getNumWeights() { return numWeights; }
+}
@@ -0,0 +1,96 @@
+package com.robocode;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/** Test cases proving the float precision neural net gives the same Q values as the double version
+ * within tolerance, for inference, training and the persisted weight file.
+ */
+public class FloatNeuralNetTester {
+    static final double tolerance = 1e-4;
+
+    // Create a double precision NN with seeded random weights and a float NN with the same weights
+    private NeuralNet doubleNet;
+    private FloatNeuralNet floatNet;
+
+    private void createNets() {
+        doubleNet = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        doubleNet.initializeWeights(new SplittableRandom(0));
+        doubleNet.zeroWeights();
+        floatNet = (FloatNeuralNet) NeuralNet.create(NeuralNet.Precision.FLOAT,
+                NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        floatNet.loadWeights(doubleNet.getWeightsI2H(), doubleNet.getWeightsH2O());
+        floatNet.zeroWeights();
+    }
+
+    // Q value of every {state, action} over a grid of the 4 state inputs and 5 actions
+    @Test
+    public void testOutputAgreement() {
+        createNets();
+        double [] x = new double[5];
+        for (x[0] = 0; x[0] <= 8; x[0] += 0.5)
+            for (x[1] = 0; x[1] <= 6; x[1] += 0.5)
+                for (x[2] = 0; x[2] <= 10; x[2] += 1)
+                    for (x[3] = 0; x[3] <= 10; x[3] += 1)
+                        for (x[4] = 0; x[4] < 5; x[4]++)
+                            assertEquals(doubleNet.outputFor(x), floatNet.outputFor(x), tolerance);
+    }
+
+    // Train both nets with the same sequence of samples and compare Q values
+    @Test
+    public void testTrainingAgreement() {
+        createNets();
+        Random rnd = new Random(42);
+        double [][] samples = new double[200][];
+        double [] targets = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = new double[]{rnd.nextDouble() * 8, rnd.nextDouble() * 6, rnd.nextDouble() * 10,
+                    rnd.nextDouble() * 10, rnd.nextInt(5)};
+            targets[i] = rnd.nextDouble() * 2 - 1;
+        }
+
+        for (int epoch = 0; epoch < 5; epoch++) {
+            for (int i = 0; i < samples.length; i++) {
+                doubleNet.train(samples[i], targets[i]);
+                floatNet.train(samples[i], targets[i]);
+            }
+        }
+
+        for (double [] sample : samples) {
+            assertEquals(doubleNet.outputFor(sample), floatNet.outputFor(sample), tolerance);
+        }
+    }
+
+    // Float weight file is half the size and loads into either precision
+    @Test
+    public void testFloatWeightFile() throws IOException {
+        createNets();
+        File doubleFile = File.createTempFile("NN_weights", ".dat");
+        File floatFile = File.createTempFile("NN_weights_f", ".dat");
+        doubleFile.deleteOnExit();
+        floatFile.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(doubleFile)) {
+            doubleNet.save(out);
+        }
+        try (FileOutputStream out = new FileOutputStream(floatFile)) {
+            floatNet.save(out);
+        }
+
+        int numWeights = 5 * 6 + 6;
+        assertEquals(numWeights * 4, doubleFile.length() - floatFile.length());
+
+        double [] x = {1.5, 2.5, 3.5, 4.5, 3};
+        FloatNeuralNet floatFromDouble = new FloatNeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        floatFromDouble.load(doubleFile);
+        NeuralNet doubleFromFloat = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        doubleFromFloat.load(floatFile);
+
+        assertEquals(doubleNet.outputFor(x), floatFromDouble.outputFor(x), tolerance);
+        assertEquals(doubleNet.outputFor(x), doubleFromFloat.outputFor(x), tolerance);
+    }
+}
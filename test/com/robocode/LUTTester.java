@@ -4,6 +4,8 @@ import org.junit.Assert;
 import org.junit.Test;
 import robocode.BulletHitEvent;
 import robocode.HitByBulletEvent;
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 
 /** Test Driven Development (TDD) approach is used where the software is made as modular as possible via Java methods.
@@ -184,4 +186,178 @@ public class LUTTester {
         // prevQ + alpha * (reward + gamma * currQ - prevQ)
         // 0.7   + 0.7   x (1.2    + 0.9   x 1.0   - 0.7) = 1.68
     }
-}
\ No newline at end of file
+
+    // Test ConcurrentLUT shared by several threads loses no update
+    @Test
+    public void testConcurrentLUT() throws InterruptedException {
+        ConcurrentLUT lut = new ConcurrentLUT(8, 6, 4, 4, 5, false);
+        double [] x = {7, 5, 3, 3, 4};
+
+        lut.train(x, 2.43);
+        Assert.assertEquals(2.43, lut.outputFor(x), 0.005);
+
+        // Every concurrent update is applied and counted
+        lut.train(x, 0.0);
+        Thread [] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                double [] sa = {7, 5, 3, 3, 4};
+                for (int n = 0; n < 10000; n++) {
+                    lut.update(sa, 0.5, 1.0);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Assert.assertEquals(2 + 4 * 10000, lut.getAccessCnt(x));
+        Assert.assertEquals(1.0, lut.outputFor(x), 0.005);
+    }
+
+    // Test an out-of-range component is rejected instead of aliasing another entry
+    @Test
+    public void testIndexBounds() {
+        LUT lut = new LUT(8, 6, 4, 4, 5, false);
+        ConcurrentLUT clut = new ConcurrentLUT(8, 6, 4, 4, 5, false);
+        double [][] outside = {{0, 6, 0, 0, 0}, {8, 0, 0, 0, 0}, {0, 0, 0, 0, 5}, {0, 0, -1, 0, 0}};
+        for (double [] x : outside) {
+            try {
+                lut.indexFor(x);
+                Assert.fail("LUT should reject " + Arrays.toString(x));
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+            try {
+                clut.indexFor(x);
+                Assert.fail("ConcurrentLUT should reject " + Arrays.toString(x));
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(lut.indexFor(new double[]{7, 5, 3, 3, 4}), clut.indexFor(new double[]{7, 5, 3, 3, 4}));
+    }
+
+    // Test EligibilityTraces visit, update, decay cutoff and capacity
+    @Test
+    public void testEligibilityTraces() {
+        LUT lut = new LUT(8, 6, 4, 4, 5, false);
+        EligibilityTraces traces = new EligibilityTraces(2, 0.1);
+        double [] x1 = {0, 0, 0, 0, 1};
+        double [] x2 = {1, 2, 3, 3, 4};
+
+        traces.visit(lut.indexFor(x1));
+        traces.decay(0.5);
+        traces.visit(lut.indexFor(x2));
+        traces.update(lut, 1.0);
+        Assert.assertEquals(0.5, lut.outputFor(x1), 0.005);
+        Assert.assertEquals(1.0, lut.outputFor(x2), 0.005);
+
+        // Trace of x1 drops below cutoff (0.075), x2 stays (0.15)
+        traces.decay(0.15);
+        Assert.assertEquals(1, traces.size());
+        Assert.assertEquals(lut.indexFor(x2), traces.getIndex(0));
+        Assert.assertEquals(0.15, traces.getTrace(0), 0.005);
+
+        // Full set replaces the smallest trace (x2)
+        double [] x3 = {7, 5, 3, 3, 0};
+        traces.visit(lut.indexFor(x1));
+        traces.visit(lut.indexFor(x3));
+        Assert.assertEquals(2, traces.size());
+        Assert.assertEquals(lut.indexFor(x3), traces.getIndex(0));
+        Assert.assertEquals(lut.indexFor(x1), traces.getIndex(1));
+    }
+
+    // Test DoubleQ selection by the online LUT, evaluation by the other LUT and role swapping
+    @Test
+    public void testDoubleQ() {
+        LUT lutA = new LUT(8, 6, 4, 4, 5, false);
+        LUT lutB = new LUT(8, 6, 4, 4, 5, false);
+        DoubleQ dq = new DoubleQ(lutA, lutB, 5);
+        double [] s = {1, 2, 3, 3, 0};
+
+        // A prefers action 1, B prefers action 3
+        lutA.train(new double[]{1, 2, 3, 3, 1}, 0.8);
+        lutB.train(new double[]{1, 2, 3, 3, 1}, 0.2);
+        lutB.train(new double[]{1, 2, 3, 3, 3}, 0.9);
+
+        Assert.assertSame(lutA, dq.online());
+        Assert.assertEquals(0.2, dq.maxQ(s), 0.005);     // B's value of A's best action
+        Assert.assertEquals(1, (int) s[4]);
+
+        // Training updates the online LUT and swaps the roles
+        dq.train(new double[]{1, 2, 3, 3, 0}, 0.5);
+        Assert.assertEquals(0.5, lutA.outputFor(new double[]{1, 2, 3, 3, 0}), 0.005);
+        Assert.assertSame(lutB, dq.online());
+        Assert.assertEquals(0.0, dq.maxQ(s), 0.005);     // A's value of B's best action
+        Assert.assertEquals(3, (int) s[4]);
+
+        // Policy is the average of both LUTs
+        Assert.assertEquals(0.5, dq.outputFor(new double[]{1, 2, 3, 3, 1}), 0.005);
+    }
+
+    // Test an off-heap LUT mapped to a file keeps its cells when mapped again
+    @Test
+    public void testOffHeapLUT() throws IOException {
+        File file = File.createTempFile("lut", ".off");
+        file.deleteOnExit();
+        Assert.assertTrue(file.delete());
+        double [] x = {7, 5, 3, 3, 4};
+
+        LUT lut = LUT.offHeap(8, 6, 4, 4, 5, false, file);
+        Assert.assertEquals(0.0, lut.outputFor(x), 0.0);
+        lut.train(x, 2.43);
+        lut.force();
+
+        LUT reopened = LUT.offHeap(8, 6, 4, 4, 5, true, file);
+        Assert.assertEquals(lut.outputFor(x), reopened.outputFor(x), 0.0);
+        Assert.assertEquals(1, reopened.getAccessCnt(x));
+
+        // A LUT of another size does not map the file
+        try {
+            LUT.offHeap(8, 6, 4, 4, 4, false, file);
+            Assert.fail("Size mismatch should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Nor does a LUT of the same size but other dimensions
+        try {
+            LUT.offHeap(6, 8, 4, 4, 5, false, file);
+            Assert.fail("Dimension mismatch should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // Folds train concurrently on index-modulo partitions and repeat with the same seed
+    @Test
+    public void testCrossValidate() throws Exception {
+        int n = 40;
+        double [][] input = new double[n][];
+        double [] output = new double[n];
+        for (int i = 0; i < n; i++) {
+            input[i] = new double[]{i % 8 + 1, i % 6 + 1, i % 4 + 1, i % 3 + 1, i % 5 + 1};
+            output[i] = Math.sin(i) * 0.8;
+        }
+        TrainController controller = new TrainController(0.01, 50, 0, 0.0,
+                TrainController.LRSchedule.CONSTANT, 0.5, 10);
+
+        Rng.setSeed(1);
+        LUTTrain.FoldResult [] results = LUTTrain.crossValidate(input, output, n, 4, NeuralNet.ActFnType.BIPOLAR,
+                5, 0.1, 0.0, null, controller, 4);
+        Rng.setSeed(1);
+        LUTTrain.FoldResult [] again = LUTTrain.crossValidate(input, output, n, 4, NeuralNet.ActFnType.BIPOLAR,
+                5, 0.1, 0.0, null, controller, 2);
+
+        Assert.assertEquals(4, results.length);
+        for (int f = 0; f < 4; f++) {
+            Assert.assertEquals(f, results[f].fold);
+            Assert.assertEquals(50, results[f].epochs);
+            Assert.assertEquals(TrainController.StopReason.MAX_EPOCHS, results[f].stopReason);
+            Assert.assertEquals(results[f].validError, again[f].validError, 0.0);
+        }
+        Assert.assertNotEquals(results[0].validError, results[1].validError, 0.0);
+    }
+}
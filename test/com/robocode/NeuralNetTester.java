@@ -0,0 +1,664 @@
+package com.robocode;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/** Test cases of the neural net engines used to approximate the Q-value function.
+ */
+public class NeuralNetTester {
+    // XOR training set using bipolar representation
+    static final double [][] xorInput = {{-1, -1}, {-1, 1}, {1, -1}, {1, 1}};
+    static final double [] xorOutput = {-1, 1, 1, -1};
+
+    /**
+     * Train a net on XOR until the total squared error is below 0.05.
+     * @return number of epochs needed (maxEpochs if not converged).
+     */
+    static int epochsToXor(CommonInterface net, int maxEpochs) {
+        for (int epoch = 1; epoch <= maxEpochs; epoch++) {
+            double totalError = 0;
+            for (int i = 0; i < xorInput.length; i++) {
+                net.train(xorInput[i], xorOutput[i]);
+            }
+            for (int i = 0; i < xorInput.length; i++) {
+                totalError += Math.pow(xorOutput[i] - net.outputFor(xorInput[i]), 2);
+            }
+            if (totalError < 0.05) return epoch;
+        }
+        return maxEpochs;
+    }
+
+    // Test MultiLayerNet {n, h, 1} gives the same output as NeuralNet for the same weight file
+    @Test
+    public void testMultiLayerNetLoadsNeuralNetWeights() throws IOException {
+        NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        nn.initializeWeights();
+
+        File file = File.createTempFile("NN_weights", ".dat");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            nn.save(out);
+        }
+
+        MultiLayerNet mln = MultiLayerNet.singleHidden(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        mln.load(file);
+
+        double [] x = {1.2, 3.4, 5.6, 7.8, 2};
+        assertEquals(nn.outputFor(x), mln.outputFor(x), 1e-12);
+
+        // A deeper net does not match the file structure
+        MultiLayerNet deep = new MultiLayerNet(new int[]{5, 4, 4, 1},
+                new NeuralNet.ActFnType[]{NeuralNet.ActFnType.BIPOLAR, NeuralNet.ActFnType.BIPOLAR, NeuralNet.ActFnType.BIPOLAR},
+                0.2, 0.5, -1, 1);
+        try {
+            deep.load(file);
+            fail("Structure mismatch should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // Test the bounds of a CUSTOM activation function are restored from the weight file
+    @Test
+    public void testCustomBoundsLoadSave() throws IOException {
+        NeuralNet.ActFnType custom = NeuralNet.ActFnType.CUSTOM;
+        double [] x = {1.2, 3.4, 5.6, 7.8, 2};
+        File file = File.createTempFile("NN_weights", ".dat");
+        file.deleteOnExit();
+
+        MultiLayerNet mln = new MultiLayerNet(new int[]{5, 4, 3, 1},
+                new NeuralNet.ActFnType[]{custom, custom, custom}, 0.2, 0.5, -2, 3);
+        mln.initializeWeights();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            mln.save(out);
+        }
+        MultiLayerNet mlnLoaded = new MultiLayerNet(new int[]{5, 4, 3, 1},
+                new NeuralNet.ActFnType[]{custom, custom, custom}, 0.2, 0.5, -1, 1);
+        mlnLoaded.load(file);
+        assertEquals(mln.outputFor(x), mlnLoaded.outputFor(x), 1e-12);
+
+        NeuralNet nn = new NeuralNet(custom, 5, 4, 0.2, 0.5, -2, 3);
+        nn.initializeWeights();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            nn.save(out);
+        }
+        NeuralNet nnLoaded = new NeuralNet(custom, 5, 4, 0.2, 0.5, -1, 1);
+        nnLoaded.load(file);
+        assertEquals(nn.outputFor(x), nnLoaded.outputFor(x), 1e-12);
+
+        FloatNeuralNet floatLoaded = new FloatNeuralNet(custom, 5, 4, 0.2, 0.5, -1, 1);
+        floatLoaded.load(file);
+        assertEquals(nn.outputFor(x), floatLoaded.outputFor(x), 1e-5);
+    }
+
+    // Test a net with two hidden layers learns XOR
+    @Test
+    public void testMultiLayerNetXor() {
+        MultiLayerNet mln = new MultiLayerNet(new int[]{2, 4, 3, 1},
+                new NeuralNet.ActFnType[]{NeuralNet.ActFnType.BIPOLAR, NeuralNet.ActFnType.BIPOLAR, NeuralNet.ActFnType.BIPOLAR},
+                0.1, 0.5, -1, 1);
+        mln.initializeWeights();
+
+        assertEquals(4 * 3 + 3 * 5 + 1 * 4, mln.getNumWeights());
+        assertTrue("Should learn XOR within 20000 epochs", epochsToXor(mln, 20000) < 20000);
+    }
+
+    // Test every optimizer trains NeuralNet on XOR from the same seeded initial weights
+    @Test
+    public void testOptimizers() {
+        int [] epochs = new int[Optimizer.Type.values().length];
+        for (Optimizer.Type type : Optimizer.Type.values()) {
+            NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 2, 4,
+                    type == Optimizer.Type.ADAM || type == Optimizer.Type.RMSPROP ? 0.05 : 0.2, 0.9, -1, 1);
+            nn.initializeWeights(new SplittableRandom(0));
+            nn.setOptimizer(type);
+            nn.zeroWeights();
+            epochs[type.ordinal()] = epochsToXor(nn, 20000);
+            assertTrue(type + " should learn XOR within 20000 epochs", epochs[type.ordinal()] < 20000);
+        }
+        assertTrue("Adam should need fewer than 2000 epochs", epochs[Optimizer.Type.ADAM.ordinal()] < 2000);
+    }
+
+    // Test a single Adam step moves the weight by about the learning rate in the gradient direction
+    @Test
+    public void testAdamStep() {
+        Optimizer adam = new Optimizer(Optimizer.Type.ADAM, 2, 0.01, 0.9);
+        adam.beginStep();
+        assertEquals(0.01, adam.change(0, 0.3), 1e-6);
+        assertEquals(-0.01, adam.change(1, -5.0), 1e-6);
+    }
+
+    // Test int8 quantized inference agrees with the trained NeuralNet
+    @Test
+    public void testQuantizedNet() {
+        NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        nn.initializeWeights();
+        double [][] range = {{8.0, 6.0, 10.0, 10.0, 4.0}};
+        QuantizedNet qnn = new QuantizedNet(nn, range);
+
+        Random rnd = new Random(7);
+        for (int n = 0; n < 1000; n++) {
+            double [] x = {rnd.nextDouble() * 8, rnd.nextDouble() * 6, rnd.nextDouble() * 10,
+                    rnd.nextDouble() * 10, rnd.nextInt(5)};
+            assertEquals(nn.outputFor(x), qnn.outputFor(x), 0.05);
+        }
+    }
+
+    // Batch weight change is the sum of the weight changes of its samples from the same weights
+    @Test
+    public void testTrainBatch() {
+        NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.0, -1, 1);
+        nn.initializeWeights();
+        double [][] initI2H = nn.getWeightsI2H();
+        double [] initH2O = nn.getWeightsH2O();
+
+        double [][] inputs = {{1.0, 2.0, 3.0, 4.0, 0.0}, {5.0, 1.0, 0.5, 9.0, 3.0}};
+        double [] targets = {0.5, -0.5};
+
+        double [] sumH2O = new double[6];
+        for (int k = 0; k < 2; k++) {
+            nn.loadWeights(initI2H, initH2O);
+            nn.trainBatch(new double[][]{inputs[k]}, new double[]{targets[k]}, 1);
+            for (int i = 0; i < 6; i++) sumH2O[i] += nn.getWeightsH2O()[i] - initH2O[i];
+        }
+
+        nn.loadWeights(initI2H, initH2O);
+        nn.trainBatch(inputs, targets, 2);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(sumH2O[i], nn.getWeightsH2O()[i] - initH2O[i], 1e-12);
+        }
+    }
+
+    // Decision table gives the greedy action of the NN at the cell centers and survives save/load
+    @Test
+    public void testDecisionTable() throws Exception {
+        NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        nn.initializeWeights();
+        int [] grid = {4, 3, 5, 5};
+        double [] max = {8.0, 6.0, 10.0, 10.0};
+        DecisionTable table = DecisionTable.compile(nn, grid, max, 5, true, 2);
+        assertEquals(4 * 3 * 5 * 5, table.size());
+
+        File file = File.createTempFile("NN_policy", ".tbl");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            table.save(out);
+        }
+        DecisionTable loaded = DecisionTable.load(file, 5);
+
+        Random rnd = new Random(7);
+        for (int n = 0; n < 100; n++) {
+            double [] x = new double[5];
+            double [] center = new double[5];
+            for (int k = 0; k < 4; k++) {
+                int i = rnd.nextInt(grid[k]);
+                center[k] = (i + 0.5) * max[k] / grid[k];
+                x[k] = center[k] + (rnd.nextDouble() - 0.5) * 0.99 * max[k] / grid[k];
+            }
+            int best = 0;
+            double maxQ = Double.NEGATIVE_INFINITY;
+            for (int a = 0; a < 5; a++) {
+                center[4] = a;
+                double q = nn.outputFor(center);
+                if (q >= maxQ) {
+                    maxQ = q;
+                    best = a;
+                }
+                assertEquals(q, loaded.qFor(x, a), 1e-6);
+            }
+            assertEquals(best, table.actionFor(x));
+            assertEquals(best, loaded.actionFor(x));
+        }
+
+        // A table of another # of actions, a truncated or a corrupt file is rejected with an IOException
+        byte [] bytes = Files.readAllBytes(file.toPath());
+        File bad = File.createTempFile("NN_policy_bad", ".tbl");
+        bad.deleteOnExit();
+        byte [] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        byte [] negativeGrid = bytes.clone();
+        negativeGrid[8] = (byte) 0x80;      // Sign bit of grid[0]
+        byte [][] corrupt = {bytes, truncated, negativeGrid};
+        for (int i = 0; i < corrupt.length; i++) {
+            Files.write(bad.toPath(), corrupt[i]);
+            try {
+                DecisionTable.load(bad, i == 0 ? 4 : 5);
+                fail("Invalid decision table " + i + " should be rejected");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    // Running statistics match the batch mean and variance; the normalizer is saved with the weights
+    // and folded into the quantized net
+    @Test
+    public void testInputNormalizer() throws IOException {
+        Random rnd = new Random(7);
+        double [][] samples = new double[200][];
+        for (int n = 0; n < samples.length; n++) {
+            samples[n] = new double[]{rnd.nextDouble() * 8, rnd.nextDouble() * 6, rnd.nextDouble() * 10,
+                    rnd.nextDouble() * 10, rnd.nextInt(5)};
+        }
+
+        NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        nn.initializeWeights();
+        nn.setNormalizer(new InputNormalizer(5));
+        for (double [] x : samples) {
+            nn.train(x, 0.5);
+        }
+        InputNormalizer normalizer = nn.getNormalizer();
+        assertEquals(samples.length, normalizer.getCount());
+        for (int j = 0; j < 5; j++) {
+            double mean = 0;
+            for (double [] x : samples) mean += x[j] / samples.length;
+            double variance = 0;
+            for (double [] x : samples) variance += (x[j] - mean) * (x[j] - mean) / samples.length;
+            assertEquals(mean, normalizer.getMean(j), 1e-9);
+            assertEquals(Math.sqrt(variance), normalizer.getStd(j), 1e-9);
+        }
+
+        // Frozen statistics do not change
+        normalizer.freeze();
+        nn.train(new double[]{100, 100, 100, 100, 100}, 0.5);
+        assertEquals(samples.length, normalizer.getCount());
+
+        File file = File.createTempFile("NN_weights", ".dat");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            nn.save(out);
+        }
+        NeuralNet loaded = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        loaded.load(file);
+        assertNotNull(loaded.getNormalizer());
+        assertTrue(loaded.getNormalizer().isFrozen());
+        for (double [] x : samples) {
+            assertEquals(nn.outputFor(x), loaded.outputFor(x), 1e-12);
+        }
+
+        // An invalid normalizer section (here for 3 inputs) leaves the weights and the normalizer unchanged
+        NeuralNet other = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        other.initializeWeights();
+        other.setNormalizer(new InputNormalizer(3));
+        File invalid = File.createTempFile("NN_weights_bad", ".dat");
+        invalid.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(invalid)) {
+            other.save(out);
+        }
+        InputNormalizer before = loaded.getNormalizer();
+        try {
+            loaded.load(invalid);
+            fail("Normalizer section of another # of inputs should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+        assertSame(before, loaded.getNormalizer());
+        for (double [] x : samples) {
+            assertEquals(nn.outputFor(x), loaded.outputFor(x), 1e-12);
+        }
+
+        // A net without normalizer rejects the file rather than ignore the normalizer
+        try {
+            new FloatNeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1).load(file);
+            fail("Normalizer section should not be ignored");
+        } catch (IOException e) {
+            // expected
+        }
+
+        double [][] range = {{8.0, 6.0, 10.0, 10.0, 4.0}};
+        QuantizedNet qnn = new QuantizedNet(nn, range);
+        for (double [] x : samples) {
+            assertEquals(nn.outputFor(x), qnn.outputFor(x), 0.05);
+        }
+    }
+
+    // One-hot input gives the same outputs and weight updates as a dense net fed the expanded one-hot vector
+    @Test
+    public void testOneHotInput() throws IOException {
+        NeuralNet sparse = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 4, 0.2, 0.0, -1, 1);
+        NeuralNet dense = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 9, 4, 0.2, 0.0, -1, 1);
+        sparse.initializeWeights();
+        dense.loadWeights(sparse.getWeightsI2H(), sparse.getWeightsH2O());
+        assertArrayEquals(dense.layerSizes(), sparse.layerSizes());
+
+        Random rnd = new Random(7);
+        double [][] samples = new double[50][];
+        for (int n = 0; n < samples.length; n++) {
+            double [] x = {rnd.nextDouble() * 8, rnd.nextDouble() * 6, rnd.nextDouble() * 10,
+                    rnd.nextDouble() * 10, rnd.nextInt(5)};
+            double [] expanded = new double[9];
+            System.arraycopy(x, 0, expanded, 0, 4);
+            expanded[4 + (int) x[4]] = 1.0;
+            samples[n] = x;
+
+            assertEquals(dense.outputFor(expanded), sparse.outputFor(x), 1e-12);
+            double target = rnd.nextDouble() * 2 - 1;
+            dense.train(expanded, target);
+            sparse.train(x, target);
+        }
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 10; j++) {
+                assertEquals(dense.getWeightsI2H()[i][j], sparse.getWeightsI2H()[i][j], 1e-12);
+            }
+        }
+
+        File file = File.createTempFile("NN_weights", ".dat");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            sparse.save(out);
+        }
+        NeuralNet loaded = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 4, 0.2, 0.0, -1, 1);
+        loaded.load(file);
+        for (double [] x : samples) {
+            assertEquals(sparse.outputFor(x), loaded.outputFor(x), 1e-12);
+        }
+
+        // A dense net with as many inputs as weight columns must not read the one-hot file
+        try {
+            new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 9, 4, 0.2, 0.0, -1, 1).load(file);
+            fail("One-hot input should not be read as dense inputs");
+        } catch (IOException e) {
+            // expected
+        }
+
+        double [][] range = {{8.0, 6.0, 10.0, 10.0, 4.0}};
+        QuantizedNet qnn = new QuantizedNet(sparse, range);
+        for (double [] x : samples) {
+            assertEquals(sparse.outputFor(x), qnn.outputFor(x), 0.05);
+        }
+
+        // The static loader reads the one-hot file, a dense loader of the same # of inputs rejects it
+        QuantizedNet qnnLoaded = QuantizedNet.load(file, NeuralNet.ActFnType.BIPOLAR, 5, 5, 4, range);
+        for (double [] x : samples) {
+            assertEquals(qnn.outputFor(x), qnnLoaded.outputFor(x), 1e-12);
+        }
+        try {
+            QuantizedNet.load(file, NeuralNet.ActFnType.BIPOLAR, 5, 4, range);
+            fail("Dense loader should not read the one-hot file");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // A weight file written by the robot (one-hot action, input normalizer) loads with the robot's structure
+        NeuralNet robotNet = MyRobotNN.newNet();
+        robotNet.initializeWeights();
+        robotNet.setNormalizer(new InputNormalizer(robotNet.getNumDenseInputs()));
+        for (double [] x : samples) {
+            robotNet.getNormalizer().observe(x);
+        }
+        File robotFile = File.createTempFile("NN_weights_robot", ".dat");
+        robotFile.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(robotFile)) {
+            robotNet.save(out);
+        }
+        QuantizedNet robotQnn = QuantizedNet.loadRobot(robotFile, MyRobotNN.inputRange);
+        for (double [] x : samples) {
+            assertEquals(robotNet.outputFor(x), robotQnn.outputFor(x), 0.05);
+        }
+
+        // A category outside {0..4} is rejected instead of reading or updating another weight column
+        double [][] invalid = {{1, 2, 3, 4, 5}, {1, 2, 3, 4, -1}, {1, 2, 3, 4, -0.5}, {1, 2, 3, 4, Double.NaN}};
+        for (double [] x : invalid) {
+            try {
+                sparse.outputFor(x);
+                fail("Category " + x[4] + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                sparse.train(x, 0.5);
+                fail("Category " + x[4] + " should not be trained");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                sparse.trainBatch(new double[][]{samples[0], x}, new double[]{0.5, 0.5}, 2);
+                fail("Batch with category " + x[4] + " should not be trained");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                qnn.outputFor(x);
+                fail("Category " + x[4] + " should be rejected by the quantized net");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        for (double [] x : samples) {
+            assertEquals(loaded.outputFor(x), sparse.outputFor(x), 1e-12);
+        }
+    }
+
+    // Test MultiLayerNet gives the same outputs off-heap and resumes its weights from the mapped file
+    @Test
+    public void testMultiLayerNetOffHeap() throws IOException {
+        NeuralNet.ActFnType [] actFns = {NeuralNet.ActFnType.BIPOLAR, NeuralNet.ActFnType.BIPOLAR, NeuralNet.ActFnType.BIPOLAR};
+        MultiLayerNet heap = new MultiLayerNet(new int[]{2, 4, 3, 1}, actFns, 0.02, 0.9, -1, 1);
+        heap.initializeWeights(Rng.forStream(0));
+        heap.setOptimizer(Optimizer.Type.ADAM);
+        MultiLayerNet direct = new MultiLayerNet(new int[]{2, 4, 3, 1}, actFns, 0.02, 0.9, -1, 1);
+        direct.initializeWeights(Rng.forStream(0));
+        direct.setOptimizer(Optimizer.Type.ADAM);
+        direct.moveOffHeap(null);
+        assertTrue(direct.isOffHeap());
+
+        for (int epoch = 0; epoch < 50; epoch++) {
+            for (int i = 0; i < xorInput.length; i++) {
+                heap.train(xorInput[i], xorOutput[i]);
+                direct.train(xorInput[i], xorOutput[i]);
+            }
+        }
+        for (double [] x : xorInput) {
+            assertEquals(heap.outputFor(x), direct.outputFor(x), 0.0);
+        }
+
+        File file = File.createTempFile("mln", ".off");
+        file.deleteOnExit();
+        assertTrue(file.delete());
+        heap.moveOffHeap(file);
+        heap.force();
+
+        MultiLayerNet mapped = new MultiLayerNet(new int[]{2, 4, 3, 1}, actFns, 0.02, 0.9, -1, 1);
+        mapped.moveOffHeap(file);
+        for (double [] x : xorInput) {
+            assertEquals(direct.outputFor(x), mapped.outputFor(x), 0.0);
+        }
+
+        // The weight file round trip works from off-heap weights
+        File weights = File.createTempFile("NN_weights", ".dat");
+        weights.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(weights)) {
+            mapped.save(out);
+        }
+        MultiLayerNet loaded = new MultiLayerNet(new int[]{2, 4, 3, 1}, actFns, 0.02, 0.9, -1, 1);
+        loaded.moveOffHeap(null);
+        loaded.load(weights);
+        assertEquals(mapped.outputFor(xorInput[1]), loaded.outputFor(xorInput[1]), 0.0);
+
+        // A net with the same # of weights but other layer sizes does not map the file
+        File other = File.createTempFile("mln", ".off");
+        other.deleteOnExit();
+        assertTrue(other.delete());
+        NeuralNet.ActFnType [] twoActFns = {NeuralNet.ActFnType.BIPOLAR, NeuralNet.ActFnType.BIPOLAR};
+        new MultiLayerNet(new int[]{3, 3, 1}, twoActFns, 0.02, 0.9, -1, 1).moveOffHeap(other);
+        MultiLayerNet wide = new MultiLayerNet(new int[]{1, 5, 1}, twoActFns, 0.02, 0.9, -1, 1);
+        assertEquals(16, wide.getNumWeights());
+        try {
+            wide.moveOffHeap(other);
+            fail("Layer size mismatch should be rejected");
+        } catch (IOException e) {
+            assertFalse(wide.isOffHeap());
+        }
+    }
+
+    // Test NeuralNet trains the same off-heap (momentum and optimizer) and resumes from the mapped file
+    @Test
+    public void testNeuralNetOffHeap() throws IOException {
+        NeuralNet heap = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 4, 0.2, 0.5, -1, 1);
+        heap.initializeWeights(new SplittableRandom(0));
+        NeuralNet direct = heap.copy();
+        direct.moveOffHeap(null);
+        assertTrue(direct.isOffHeap());
+
+        Random rnd = new Random(3);
+        double [][] samples = new double[40][];
+        double [] targets = new double[samples.length];
+        for (int n = 0; n < samples.length; n++) {
+            samples[n] = new double[]{rnd.nextInt(8), rnd.nextInt(6), rnd.nextInt(10), rnd.nextInt(10), rnd.nextInt(5)};
+            targets[n] = rnd.nextDouble() * 2 - 1;
+        }
+        for (Optimizer.Type type : new Optimizer.Type[]{null, Optimizer.Type.ADAM}) {
+            heap.setOptimizer(type);
+            direct.setOptimizer(type);
+            for (int n = 0; n < samples.length; n++) {
+                heap.train(samples[n], targets[n]);
+                direct.train(samples[n], targets[n]);
+            }
+            heap.trainBatch(samples, targets, samples.length);
+            direct.trainBatch(samples, targets, samples.length);
+            for (double [] x : samples) {
+                assertEquals(heap.outputFor(x), direct.outputFor(x), 0.0);
+            }
+        }
+
+        File file = File.createTempFile("nnet", ".off");
+        file.deleteOnExit();
+        assertTrue(file.delete());
+        heap.setOptimizer(null);
+        heap.moveOffHeap(file);
+        heap.force();
+
+        // The weights and the momentum history are resumed from the file
+        NeuralNet mapped = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 4, 0.2, 0.5, -1, 1);
+        mapped.moveOffHeap(file);
+        direct.setOptimizer(null);
+        for (int n = 0; n < samples.length; n++) {
+            mapped.train(samples[n], targets[n]);
+            direct.train(samples[n], targets[n]);
+        }
+        assertEquals(direct.outputFor(samples[0]), mapped.outputFor(samples[0]), 0.0);
+
+        // The weight file round trip works from off-heap weights
+        File weights = File.createTempFile("NN_weights", ".dat");
+        weights.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(weights)) {
+            mapped.save(out);
+        }
+        NeuralNet loaded = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 4, 0.2, 0.5, -1, 1);
+        loaded.load(weights);
+        assertEquals(mapped.outputFor(samples[1]), loaded.outputFor(samples[1]), 0.0);
+
+        // A dense net with the same layer sizes does not map the file of the one-hot net
+        NeuralNet dense = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 9, 4, 0.2, 0.5, -1, 1);
+        assertArrayEquals(mapped.layerSizes(), dense.layerSizes());
+        try {
+            dense.moveOffHeap(file);
+            fail("One-hot mismatch should be rejected");
+        } catch (IOException e) {
+            assertFalse(dense.isOffHeap());
+        }
+
+        // Nor does a net with the same # of weights but another hidden layer
+        File other = File.createTempFile("nnet", ".off");
+        other.deleteOnExit();
+        assertTrue(other.delete());
+        new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 3, 3, 0.2, 0.5, -1, 1).moveOffHeap(other);
+        NeuralNet wide = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 1, 5, 0.2, 0.5, -1, 1);
+        assertEquals(16, wide.getNumWeights());
+        try {
+            wide.moveOffHeap(other);
+            fail("Layer size mismatch should be rejected");
+        } catch (IOException e) {
+            assertFalse(wide.isOffHeap());
+        }
+    }
+
+    // Each rung keeps the best third of the configurations and triples their epochs
+    @Test
+    public void testSuccessiveHalving() throws Exception {
+        int n = 40;
+        double [][] input = new double[n][];
+        double [] output = new double[n];
+        for (int i = 0; i < n; i++) {
+            input[i] = new double[]{i % 8 + 1, i % 6 + 1, i % 4 + 1, i % 3 + 1, i % 5 + 1};
+            output[i] = 0.8 * Math.tanh(0.3 * (input[i][0] - 4.5) - 0.4 * (input[i][1] - 3.5));
+        }
+        File dir = Files.createTempDirectory("sh").toFile();
+
+        SuccessiveHalving.Config [] configs = SuccessiveHalving.sample(9, Rng.forStream(0));
+        SuccessiveHalving.Config [] ranked = SuccessiveHalving.search(configs, input, output, 30, n, 2, 3, dir, 4);
+
+        assertEquals(9, ranked.length);
+        int [] expectedEpochs = {18, 6, 6, 2, 2, 2, 2, 2, 2};
+        for (int c = 0; c < 9; c++) {
+            assertEquals(expectedEpochs[c], ranked[c].epochs);
+            assertTrue(ranked[c].checkpoint.exists());
+        }
+        // Configurations stopped at the same rung are ranked by validation error
+        for (int c = 4; c < 9; c++) {
+            assertTrue(ranked[c - 1].validError <= ranked[c].validError);
+        }
+
+        // Rungs keep 9, 3 and 1 configurations with a budget of 2, 6 and 18 epochs
+        int [] survivors = {9, 3, 1};
+        int [] budgets = {2, 6, 18};
+        for (int rung = 0; rung < 3; rung++) {
+            int count = 0;
+            for (SuccessiveHalving.Config config : ranked) {
+                if (config.rungErrors.size() > rung) count++;
+            }
+            assertEquals(survivors[rung], count);
+        }
+        for (SuccessiveHalving.Config config : ranked) {
+            assertEquals(budgets[config.rungErrors.size() - 1], config.epochs);
+        }
+
+        // The checkpoint holds the weights the validation error was measured with
+        NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, ranked[0].numHidden, 0.1, 0.0, -1, 1);
+        nn.load(ranked[0].checkpoint);
+        assertEquals(ranked[0].validError, LUTTrain.rmsError(nn, input, output, 30, n), 1e-12);
+
+        // Training resumed from a checkpoint (with the momentum history) equals uninterrupted training
+        SuccessiveHalving.Config resumed = SuccessiveHalving.sample(1, Rng.forStream(1))[0];
+        resumed.momentumTerm = 0.9;
+        resumed.id = 100;
+        SuccessiveHalving.Config straight = SuccessiveHalving.sample(1, Rng.forStream(1))[0];
+        straight.momentumTerm = 0.9;
+        straight.id = 100;     // Same initial weights, but checkpointed to another directory
+        SuccessiveHalving.train(resumed, input, output, 30, n, 2, dir);
+        SuccessiveHalving.train(resumed, input, output, 30, n, 6, dir);
+        File straightDir = Files.createTempDirectory("sh").toFile();
+        SuccessiveHalving.train(straight, input, output, 30, n, 6, straightDir);
+        assertEquals(straight.validError, resumed.validError, 0.0);
+
+        for (File file : straightDir.listFiles()) file.delete();
+        straightDir.delete();
+        for (File file : dir.listFiles()) file.delete();
+        dir.delete();
+    }
+
+    // Search rejects eta < 2 and minEpochs < 1, which would never stop or divide by 0
+    @Test
+    public void testSuccessiveHalvingArguments() throws Exception {
+        File dir = Files.createTempDirectory("sh").toFile();
+        double [][] input = {{1, 2, 3, 4, 0}};
+        double [] output = {0.5};
+        int [][] invalid = {{2, 1}, {2, 0}, {0, 3}};   // {minEpochs, eta}
+        for (int [] args : invalid) {
+            try {
+                SuccessiveHalving.search(SuccessiveHalving.sample(3, Rng.forStream(0)), input, output, 1, 1,
+                        args[0], args[1], dir, 1);
+                fail("minEpochs = " + args[0] + ", eta = " + args[1] + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        dir.delete();
+    }
+}
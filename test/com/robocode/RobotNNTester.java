@@ -3,10 +3,18 @@ package com.robocode;
 import static org.junit.Assert.*;
 import org.junit.Test;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /** Test Driven Development (TDD) approach is used where the software is made as modular as possible via Java methods.
  * The test cases of each method are written in JUnit that drives the actual coding of the method.
@@ -140,4 +148,556 @@ public class RobotNNTester {
         assertEquals(7, ((Experience) vector[0]).prevState.getEnergy(), 0.005);
         assertEquals(5.1, ((Experience) vector[1]).currState.getXPos(), 0.005);
     }
-}
\ No newline at end of file
+
+    // Test TrainController stopping criteria and learning rate schedule
+    @Test
+    public void testTrainController() {
+        TrainController c = new TrainController(0.05, 100, 3, 0.0,
+                TrainController.LRSchedule.STEP, 0.5, 10);
+
+        // Converged when training error <= accept error
+        assertFalse(c.update(1, 0.5, 0.6));
+        assertTrue(c.update(2, 0.04, 0.6));
+        assertEquals(TrainController.StopReason.CONVERGED, c.getStopReason());
+
+        // Plateau when validation error has not improved for 3 epochs
+        c.reset();
+        assertFalse(c.update(1, 0.5, 0.4));
+        assertFalse(c.update(2, 0.4, 0.45));
+        assertFalse(c.update(3, 0.3, 0.41));
+        assertTrue(c.update(4, 0.2, 0.42));
+        assertEquals(TrainController.StopReason.PLATEAU, c.getStopReason());
+        assertEquals(1, c.getBestEpoch());
+
+        // Epoch cap
+        c = new TrainController(0.05, 5, 0, 0.0, TrainController.LRSchedule.CONSTANT, 0.5, 10);
+        for (int epoch = 1; epoch < 5; epoch++) {
+            assertFalse(c.update(epoch, 1.0 / epoch, Double.NaN));
+        }
+        assertTrue(c.update(5, 0.1, Double.NaN));
+        assertEquals(TrainController.StopReason.MAX_EPOCHS, c.getStopReason());
+
+        // Step schedule halves the learning rate every 10 epochs
+        c = new TrainController(0.05, 0, 0, 0.0, TrainController.LRSchedule.STEP, 0.5, 10);
+        assertEquals(0.2, c.learningRateFor(1, 0.2), 1e-9);
+        assertEquals(0.2, c.learningRateFor(10, 0.2), 1e-9);
+        assertEquals(0.1, c.learningRateFor(11, 0.2), 1e-9);
+    }
+
+    // Test EpochLogger writes all buffered records to CSV and binary files
+    @Test
+    public void testEpochLogger() throws IOException {
+        File csv = File.createTempFile("epoch", ".csv");
+        File bin = File.createTempFile("epoch", ".bin");
+        csv.deleteOnExit();
+        bin.deleteOnExit();
+
+        // Batch size of 4 forces several asynchronous batch writes
+        EpochLogger log = new EpochLogger(csv.getPath(), bin.getPath(), 4, 0);
+        for (int epoch = 1; epoch <= 10; epoch++) {
+            log.record(epoch, 1.0 / epoch);
+        }
+        log.close();
+
+        List<String> lines = Files.readAllLines(csv.toPath());
+        assertEquals(11, lines.size());
+        assertEquals("Epoch,Total Error", lines.get(0));
+        assertEquals("10,0.1", lines.get(10));
+        assertEquals(10 * 12, bin.length());
+    }
+
+    // Test binary weight file round trip and structure validation
+    @Test
+    public void testBinaryLoadSave() throws IOException {
+        NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        nn.initializeWeights();
+
+        File file = File.createTempFile("NN_weights", ".dat");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            nn.save(out);
+        }
+
+        // Same structure loads the same weights
+        NeuralNet nn2 = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        nn2.load(file);
+        double [] x = {1.2, 3.4, 5.6, 7.8, 2};
+        assertEquals(nn.outputFor(x), nn2.outputFor(x), 0.0);
+
+        // Wrong number of hidden neurons is rejected
+        NeuralNet nn3 = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 6, 0.2, 0.5, -1, 1);
+        try {
+            nn3.load(file);
+            fail("Structure mismatch should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Corrupted weight is rejected by the checksum
+        byte [] bytes = Files.readAllBytes(file.toPath());
+        bytes[bytes.length / 2] ^= 0x01;
+        Files.write(file.toPath(), bytes);
+        try {
+            nn2.load(file);
+            fail("Corrupted file should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // Test RoundStats rolling window and incremental flush
+    @Test
+    public void testRoundStats() throws IOException {
+        RoundStats stats = new RoundStats(4, 2);
+
+        stats.record(true, 1.5, 4, 2, 0);
+        assertEquals(1.0, stats.windowWinRate(), 0.005);
+        stats.record(false, -0.5, 2, 0, 0);
+        stats.record(false, 0.5, 2, 1, 0);
+
+        // Window holds the last 2 rounds
+        assertEquals(3, stats.getNumRounds());
+        assertEquals(1, stats.getNumWins());
+        assertEquals(0.0, stats.windowWinRate(), 0.005);
+        assertEquals(0.0, stats.windowAvgReward(), 0.005);
+        assertEquals(0.25, stats.windowHitRate(), 0.005);
+
+        StringWriter out = new StringWriter();
+        assertEquals(3, stats.flush(out));
+        assertTrue(out.toString().startsWith("1, 1, 1.5, 4, 2, 0.0,"));
+
+        // Only new rounds are appended, rounds overwritten in the ring are skipped
+        for (int n = 0; n < 6; n++) {
+            stats.record(true, 2.0, 1, 1, 1000000);
+        }
+        out = new StringWriter();
+        assertEquals(4, stats.flush(out));
+        assertTrue(out.toString().startsWith("6, 1, 2.0, 1, 1, 1.0,"));
+        assertEquals(1.0, stats.windowWinRate(), 0.005);
+
+        // The reward sum does not keep the rounding error of a large reward that has left the window
+        stats = new RoundStats(4, 3);
+        stats.record(true, 1e17, 1, 1, 0);
+        for (int n = 0; n < 5; n++) {
+            stats.record(true, 0.25, 1, 1, 0);
+        }
+        assertEquals(0.25, stats.windowAvgReward(), 0.0);
+    }
+
+    // Test LatencyHistogram percentiles are exact for small values and within a bucket width for large ones
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(99));
+
+        // Small values have exact buckets
+        for (long n = 1; n <= 20; n++) {
+            histogram.record(n);
+        }
+        assertEquals(10, histogram.percentile(50));
+        assertEquals(20, histogram.percentile(100));
+
+        // Large values are within the relative bucket width
+        histogram.reset();
+        for (long n = 1; n <= 1000; n++) {
+            histogram.record(n * 1000);
+        }
+        assertEquals(1000, histogram.getTotalCount());
+        assertEquals(500000, histogram.percentile(50), 500000 / LatencyHistogram.subBuckets);
+        assertEquals(990000, histogram.percentile(99), 990000 / LatencyHistogram.subBuckets);
+        assertEquals(1000000, histogram.percentile(100));
+
+        // Buckets are contiguous
+        for (int i = 1; i < 200; i++) {
+            assertEquals(i, LatencyHistogram.bucketFor(LatencyHistogram.highestFor(i - 1) + 1));
+        }
+    }
+
+    // Test TrainBudget deadline, per-sample cost, deferral and skipped-turn scaling
+    @Test
+    public void testTrainBudget() {
+        TrainBudget budget = new TrainBudget(1000000, 0.5, 1, 20);
+
+        // Deadline is half a turn after the start of the tick, at least 1 sample is trained
+        budget.startTick(0);
+        assertTrue(budget.hasTime(0, 2000000));
+        assertTrue(budget.hasTime(1, 400000));
+        assertFalse(budget.hasTime(1, 600000));
+
+        // Average cost per sample is accounted for, samples that did not fit are deferred
+        budget.trained(10, 4, 400000);
+        assertEquals(100000, budget.getCostNanos(), 1);
+        assertEquals(6, budget.getDeferred());
+        assertEquals(16, budget.plan(10));
+        budget.startTick(0);
+        assertTrue(budget.hasTime(4, 0));       // 5 samples end at the deadline
+        assertFalse(budget.hasTime(5, 0));
+        assertTrue(budget.hasTime(1, 300000));
+        assertFalse(budget.hasTime(1, 350000));
+
+        // Skipped turn halves the budget, which recovers on later turns
+        budget.skippedTurn();
+        assertEquals(0.5, budget.getScale(), 1e-9);
+        budget.startTick(0);
+        assertFalse(budget.hasTime(1, 100000));
+        assertEquals(0.52, budget.getScale(), 1e-9);
+        budget.trained(16, 16, 1600000);
+        assertEquals(0, budget.getDeferred());
+    }
+
+    // Training time stays within the budget when training, not assembly, is the expensive phase
+    @Test
+    public void testTrainBudgetExpensiveTraining() {
+        TrainBudget budget = new TrainBudget(1000000, 0.5, 1, 100);
+        long assembleNanos = 10000;     // Per sample, before the deadline checks
+        long trainNanos = 90000;        // Per sample, after the last check
+        long now = 0;
+        for (int turn = 0; turn < 10; turn++) {
+            budget.startTick(now);
+            long deadline = now + 500000;
+            int planned = budget.plan(10);
+            long startTime = now;
+            int n = 0;
+            while (n < planned && budget.hasTime(n, startTime)) {
+                now += assembleNanos;
+                n++;
+            }
+            now += n * trainNanos;
+            budget.trained(planned, n, now - startTime);
+
+            // The first turn has no cost estimate yet
+            if (turn > 0) {
+                assertTrue("Turn " + turn + " overshoots the budget by " + (now - deadline), now <= deadline);
+                assertEquals(5, n);
+            }
+            now = deadline + 500000;    // Next turn
+        }
+    }
+
+    // Replay batch uses each experience's own {prev state, prev action}, not the current one
+    @Test
+    public void testReplayBatch() {
+        MyRobotNN robot = new MyRobotNN();
+        MyRobotNN.nn.initializeWeights();
+        MyRobotNN.replayMemory = new ReplayMemory<>(MyRobotNN.memSize);
+        MyRobotNN.pendingSamples.clear();
+
+        // Experiences must not alias the robot's states, which are updated in place
+        robot.prevStateAction = MyRobotNN.stateAction.a1;
+        for (int n = 0; n < 3; n++) {
+            robot.prevState.copyState(robot.currState);
+            robot.currState.setXPos(n + 1);
+            robot.currState.setDist(2 * n);
+            robot.updatePrevQ();
+            robot.prevStateAction = MyRobotNN.stateAction.values()[n + 1];
+        }
+
+        Object [] vector = MyRobotNN.replayMemory.sample(3);
+        int n = 0;
+        while (n < vector.length) {
+            n = robot.assembleBatch((Experience) vector[vector.length - 1 - n], n);
+        }
+
+        // Most recent experience first
+        double [] prevDist = {2, 0, 0};
+        for (int k = 0; k < 3; k++) {
+            Experience exp = (Experience) vector[2 - k];
+            assertEquals(2 - k, exp.prevState.getXPos(), 1e-9);
+            assertEquals(2 - k, exp.prevAction.ordinal());
+            assertEquals(2 - k, MyRobotNN.batchInputs[k][0], 1e-9);
+            assertEquals(prevDist[k], MyRobotNN.batchInputs[k][2], 1e-9);
+            assertEquals(2 - k, MyRobotNN.batchInputs[k][4], 1e-9);
+            assertEquals(robot.learnQ(exp.prevState, exp.prevAction, exp.currReward, exp.currState),
+                    MyRobotNN.batchTargets[k], 1e-12);
+        }
+    }
+
+    // Samples that do not fit in the budget of a turn are trained first on the next turn
+    @Test
+    public void testReplayDeferral() {
+        MyRobotNN robot = new MyRobotNN();
+        MyRobotNN.nn.initializeWeights();
+        MyRobotNN.replayMemory = new ReplayMemory<>(MyRobotNN.memSize);
+        MyRobotNN.pendingSamples.clear();
+        // Deadline before the start of the turn: only the minimum of 2 samples is trained per turn
+        MyRobotNN.budget = new TrainBudget(1000000, -1.0, 2, MyRobotNN.maxDeferred);
+
+        Experience [] exps = new Experience[4];
+        for (int i = 0; i < exps.length; i++) {
+            exps[i] = new Experience(new State(i, 1, 2, 3), MyRobotNN.stateAction.a1, 0.5, new State(i + 1, 1, 2, 3));
+        }
+        for (int i = 0; i < 3; i++) {
+            MyRobotNN.replayMemory.add(exps[i]);
+        }
+        MyRobotNN.budget.startTick();
+        robot.replayTrain();
+
+        // Most recent samples first, the oldest one is deferred
+        assertEquals(2, MyRobotNN.batchInputs[0][0], 1e-9);
+        assertEquals(1, MyRobotNN.batchInputs[1][0], 1e-9);
+        assertEquals(1, MyRobotNN.budget.getDeferred());
+        assertSame(exps[0], MyRobotNN.pendingSamples.peekFirst());
+
+        // The deferred sample is trained before the samples of the next turn
+        MyRobotNN.replayMemory.add(exps[3]);
+        MyRobotNN.budget.startTick();
+        robot.replayTrain();
+        assertEquals(0, MyRobotNN.batchInputs[0][0], 1e-9);
+        assertEquals(3, MyRobotNN.batchInputs[1][0], 1e-9);
+        assertEquals(3, MyRobotNN.budget.getDeferred());
+        assertEquals(MyRobotNN.budget.getDeferred(), MyRobotNN.pendingSamples.size());
+
+        MyRobotNN.budget = new TrainBudget(MyRobotNN.turnBudgetNanos, MyRobotNN.trainFraction, 1, MyRobotNN.maxDeferred);
+        MyRobotNN.pendingSamples.clear();
+    }
+
+    // Test ReplayStore retention, reopening, reuse of segment files and rejection of corrupt records
+    @Test
+    public void testReplayStore() throws IOException {
+        File dir = Files.createTempDirectory("replay").toFile();
+        ReplayStore store = ReplayStore.open(dir, "replay_", 4, 2);
+        for (int n = 0; n < 10; n++) {
+            store.append(new Experience(new State(n, 1, 2, 3), MyRobotNN.stateAction.values()[n % 5],
+                    0.5 * n, new State(n + 1, 1, 2, 3)));
+        }
+
+        // Retention cap of 2 segments of 4 records keeps the last 6 of 10 records
+        assertEquals(2, store.getNumSegments());
+        assertEquals(6, store.size());
+        assertEquals(2, dir.listFiles().length);
+        assertEquals(4.0, store.get(0).prevState.getXPos(), 1e-9);
+
+        // Reopen and append to the partly filled segment
+        store.force();
+        store = ReplayStore.open(dir, "replay_", 4, 2);
+        assertEquals(6, store.size());
+        store.append(new Experience(new State(10, 1, 2, 3), MyRobotNN.stateAction.a1, 5.0, new State(11, 1, 2, 3), 3));
+        assertEquals(7, store.size());
+
+        Experience exp = store.get(5);
+        assertEquals(9.0, exp.prevState.getXPos(), 1e-9);
+        assertEquals(10.0, exp.currState.getXPos(), 1e-9);
+        assertEquals(4.5, exp.currReward, 1e-9);
+        assertEquals(MyRobotNN.stateAction.a5, exp.prevAction);
+        assertEquals(1, exp.steps);
+        assertEquals(10.0, store.get(6).prevState.getXPos(), 1e-9);
+        assertEquals(3, store.get(6).steps);
+
+        // Lowering the cap empties the oldest segment, whose file is then reused in place instead of deleted
+        store.force();
+        store = ReplayStore.open(dir, "replay_", 4, 1);
+        assertEquals(3, store.size());
+        assertEquals(8.0, store.get(0).prevState.getXPos(), 1e-9);
+        for (int n = 11; n < 13; n++) {
+            store.append(new Experience(new State(n, 1, 2, 3), MyRobotNN.stateAction.a2, 0, new State(n + 1, 1, 2, 3)));
+        }
+        assertEquals(1, store.size());
+        assertEquals(2, dir.listFiles().length);
+        assertEquals(12.0, store.get(0).prevState.getXPos(), 1e-9);
+
+        // A record with an action out of range is rejected
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, "replay_000001.seg"), "rw")) {
+            file.seek(ReplayStore.HEADER_SIZE + 72);
+            file.writeInt(99);
+        }
+        try {
+            store.get(0);
+            fail("Corrupt record should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        for (File file : dir.listFiles()) file.delete();
+        dir.delete();
+    }
+
+    // Parallel fitted Q-iteration targets match a serial computation
+    @Test
+    public void testOfflineTargets() throws Exception {
+        NeuralNet nn = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        nn.initializeWeights();
+        double [][] nextStates = new double[10][];
+        double [] rewards = new double[10];
+        double [] discounts = new double[10];
+        for (int i = 0; i < 10; i++) {
+            nextStates[i] = new double[]{i * 0.5, 1, 2, 3, 0};
+            rewards[i] = i % 2 == 0 ? -0.25 : 1.0;
+            discounts[i] = Math.pow(OfflineTrain.gamma, 1 + i % 3);
+        }
+
+        double [] targets = new double[10];
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        OfflineTrain.computeTargets(executor, 3, nn, nextStates, rewards, discounts, targets);
+        executor.shutdown();
+
+        for (int i = 0; i < 10; i++) {
+            double maxQ = Double.NEGATIVE_INFINITY;
+            for (int a = 0; a < 5; a++) {
+                maxQ = Math.max(maxQ, nn.outputFor(new double[]{i * 0.5, 1, 2, 3, a}));
+            }
+            assertEquals(rewards[i] + discounts[i] * maxQ, targets[i], 1e-12);
+        }
+    }
+
+    // Test PolicyCache keys quantized states, invalidates by weight version and evicts with CLOCK
+    @Test
+    public void testPolicyCache() {
+        PolicyCache cache = new PolicyCache(2, 5);
+        double [] q = {0.1, 0.2, 0.3, 0.4, 0.5};
+        double [] out = new double[5];
+
+        // States differing by less than 0.005 share a key
+        long key1 = PolicyCache.key(new double[]{1.23, 4.56, 7.89, 9.5, 0});
+        assertEquals(key1, PolicyCache.key(new double[]{1.2301, 4.5599, 7.89, 9.5, 3}));
+        long key2 = PolicyCache.key(new double[]{1.24, 4.56, 7.89, 9.5, 0});
+        long key3 = PolicyCache.key(new double[]{8.00, 6.00, 10.0, 10.0, 0});
+        assertNotEquals(key1, key2);
+
+        assertFalse(cache.lookup(key1, 1, out));
+        cache.put(key1, 1, q);
+        assertTrue(cache.lookup(key1, 1, out));
+        assertArrayEquals(q, out, 0.0);
+
+        // A new weight version invalidates the entry
+        assertFalse(cache.lookup(key1, 2, out));
+        cache.put(key1, 2, q);
+        assertEquals(1, cache.size());
+
+        // CLOCK evicts the entry not referenced since the last pass of the hand
+        cache.put(key2, 2, q);
+        assertTrue(cache.lookup(key1, 2, out));
+        cache.put(key3, 2, q);
+        assertEquals(2, cache.size());
+        assertTrue(cache.lookup(key3, 2, out));
+        assertTrue(cache.lookup(key1, 2, out));
+        assertFalse(cache.lookup(key2, 2, out));
+        assertEquals(4, cache.getHits());
+    }
+
+    // Greedy action from the cache is the same as from the NN and is recomputed after training
+    @Test
+    public void testCachedGreedyAction() {
+        MyRobotNN robot = new MyRobotNN();
+        // Same NN state whatever other tests trained before: seeded weights, no momentum history, raw inputs
+        MyRobotNN.nn.initializeWeights(new SplittableRandom(0));
+        MyRobotNN.nn.zeroWeights();
+        InputNormalizer normalizer = MyRobotNN.nn.getNormalizer();
+        MyRobotNN.nn.setNormalizer(null);
+        MyRobotNN.policyCache.clear();
+        State s = new State(1.23, 4.56, 7.89, 9.5);
+        double [] x = {1.23, 4.56, 7.89, 9.5, 0};
+
+        MyRobotNN.stateAction action = robot.greedyAction(s);
+        assertEquals(nnGreedyAction(x), action.ordinal());
+        long hits = MyRobotNN.policyCache.getHits();
+        assertEquals(action, robot.greedyAction(s));
+        assertEquals(hits + 1, MyRobotNN.policyCache.getHits());
+
+        // Train another action up until the NN prefers it, the cache must not return the stale action
+        int other = (action.ordinal() + 1) % MyRobotNN.stateAction.values().length;
+        for (int n = 0; n < 1000 && nnGreedyAction(x) == action.ordinal(); n++) {
+            x[4] = other;
+            MyRobotNN.nn.train(x, 1.0);
+        }
+        int best = nnGreedyAction(x);
+        assertNotEquals(action.ordinal(), best);
+        MyRobotNN.stateAction retrained = robot.greedyAction(s);
+        assertEquals(hits + 1, MyRobotNN.policyCache.getHits());
+        assertEquals(best, retrained.ordinal());
+        MyRobotNN.nn.setNormalizer(normalizer);
+
+        assertEquals(1.23, robot.quantPos(123.4), 1e-9);
+        assertEquals(9.46, robot.quantEnergy(94.6), 1e-9);
+    }
+
+    /**
+     * Return the action with the maximum Q value of MyRobotNN.nn for the state in x[0..3]
+     * (the last one of equal maxima, like MyRobotNN.greedyAction()).
+     */
+    static int nnGreedyAction(double [] x) {
+        double [] sa = x.clone();
+        int best = 0;
+        double maxQ = Double.NEGATIVE_INFINITY;
+        for (int a = 0; a < MyRobotNN.stateAction.values().length; a++) {
+            sa[4] = a;
+            if (MyRobotNN.nn.outputFor(sa) >= maxQ) {
+                maxQ = MyRobotNN.nn.outputFor(sa);
+                best = a;
+            }
+        }
+        return best;
+    }
+
+    // Test NStepBuffer discounted n-step returns, truncated returns at the end of a round and recomputation
+    @Test
+    public void testNStepBuffer() {
+        NStepBuffer buffer = new NStepBuffer(3, 0.5);
+        double [] s = new double[4];
+
+        s[0] = 1;
+        assertFalse(buffer.add(s, 0, 1.0));
+        s[0] = 2;
+        assertFalse(buffer.add(s, 1, 2.0));
+        s[0] = 3;
+        assertTrue(buffer.add(s, 2, 3.0));
+        assertEquals(1.0, buffer.getOutState()[0], 1e-9);
+        assertEquals(0, buffer.getOutAction());
+        assertEquals(1.0 + 0.5 * 2.0 + 0.25 * 3.0, buffer.getOutReturn(), 1e-12);
+        assertEquals(3, buffer.getOutSteps());
+
+        s[0] = 4;
+        assertTrue(buffer.add(s, 3, 4.0));
+        assertEquals(2.0, buffer.getOutState()[0], 1e-9);
+        assertEquals(2.0 + 0.5 * 3.0 + 0.25 * 4.0, buffer.getOutReturn(), 1e-12);
+
+        // Truncated returns at the end of a round
+        assertTrue(buffer.flush());
+        assertEquals(3.0 + 0.5 * 4.0, buffer.getOutReturn(), 1e-12);
+        assertEquals(2, buffer.getOutSteps());
+        assertTrue(buffer.flush());
+        assertEquals(4.0, buffer.getOutReturn(), 1e-12);
+        assertEquals(1, buffer.getOutSteps());
+        assertFalse(buffer.flush());
+
+        // Incremental sums stay exact over a long stream with a small gamma
+        buffer = new NStepBuffer(4, 0.1);
+        double [] rewards = new double[10000];
+        Random rnd = new Random(1);
+        for (int t = 0; t < rewards.length; t++) {
+            rewards[t] = rnd.nextDouble() * 3 - 1;
+            if (buffer.add(s, 0, rewards[t])) {
+                int first = t - 3;
+                double expected = rewards[first] + 0.1 * rewards[first + 1] + 0.01 * rewards[first + 2]
+                        + 0.001 * rewards[first + 3];
+                assertEquals(expected, buffer.getOutReturn(), 1e-9);
+            }
+        }
+    }
+
+    // Seeded streams repeat, worker streams differ, random samples are distinct items of the memory
+    @Test
+    public void testRng() {
+        Rng.setSeed(42);
+        NeuralNet nn1 = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        nn1.initializeWeights();
+        double a = Rng.nextDouble();
+
+        Rng.setSeed(42);
+        NeuralNet nn2 = new NeuralNet(NeuralNet.ActFnType.BIPOLAR, 5, 5, 0.2, 0.5, -1, 1);
+        nn2.initializeWeights();
+        assertEquals(a, Rng.nextDouble(), 0.0);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(nn1.getWeightsI2H()[i], nn2.getWeightsI2H()[i], 0.0);
+        }
+
+        assertEquals(Rng.forStream(3).nextLong(), Rng.forStream(3).nextLong());
+        assertNotEquals(Rng.forStream(3).nextLong(), Rng.forStream(4).nextLong());
+
+        ReplayMemory<Integer> memory = new ReplayMemory<>(10);
+        for (int i = 0; i < 10; i++) memory.add(i);
+        Object [] sample = memory.randomSample(6, Rng.forStream(0));
+        assertEquals(6, sample.length);
+        assertEquals(6, Arrays.stream(sample).distinct().count());
+        assertArrayEquals(sample, memory.randomSample(6, Rng.forStream(0)));
+    }
+}